@@ -19,6 +19,7 @@
 
 package edu.illinois.gernat.btools.behavior.egglaying.deploy;
 
+import edu.illinois.gernat.btools.common.io.token.TokenWriter;
 import edu.illinois.gernat.btools.common.io.token.Tokenizable;
 
 public class Detection
@@ -51,5 +52,15 @@ implements Tokenizable
 		tokens[3] = truePositiveProbability;
 		return tokens;
 	}
+
+	@Override
+	public void writeTokens(TokenWriter writer)
+	{
+		writer.writeLong(timestamp);
+		writer.writeInt(id);
+		writer.writeFloat(egglayingProbability);
+		writer.writeFloat(truePositiveProbability);
+		writer.endLine();
+	}
 	
 }
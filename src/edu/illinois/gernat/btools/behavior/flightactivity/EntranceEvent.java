@@ -19,6 +19,7 @@
 
 package edu.illinois.gernat.btools.behavior.flightactivity;
 
+import edu.illinois.gernat.btools.common.io.token.TokenWriter;
 import edu.illinois.gernat.btools.common.io.token.Tokenizable;
 
 public class EntranceEvent implements Tokenizable
@@ -88,4 +89,14 @@ public class EntranceEvent implements Tokenizable
 		return tokens;
 	}
 
+	@Override
+	public void writeTokens(TokenWriter writer)
+	{
+		writer.writeLong(begin);
+		writer.writeLong(begin + duration);
+		writer.writeInt(beeID);
+		writer.writeString(String.valueOf(type));
+		writer.endLine();
+	}
+
 }
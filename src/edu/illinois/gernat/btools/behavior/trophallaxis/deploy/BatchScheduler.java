@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.behavior.trophallaxis.deploy;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Runs the ROIs of many images through the trophallaxis CNNs in batches of
+// a fixed size, so that the networks are not run on the few ROIs of single 
+// images. A worker thread collects submitted ROIs into a batch, which runs
+// once it is full or once its oldest ROI has waited for the maximum wait 
+// time. The probabilities are scattered back to the images. Once all ROIs
+// of an image were predicted, its detections are passed to the handler.
+// In cascade mode, the direction CNN only runs on ROIs whose probability of
+// trophallaxis exceeds the cascade threshold. If the worker thread fails, 
+// all pending images fail and submit and close rethrow the failure.
+public class BatchScheduler
+{
+
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	
+	public static final long DEFAULT_MAX_WAIT = 1000;
+	
+	// cascade threshold that runs the direction CNN on all ROIs
+	public static final float NO_CASCADE = Float.NaN;
+	
+	// donor probability of ROIs that the direction CNN skipped
+	public static final float NOT_PREDICTED = -1;
+	
+	// number of batches that can be queued before submit blocks
+	private static final int QUEUED_BATCHES = 2;
+	
+	// time after which a blocked submit or close checks the worker thread
+	private static final long CHECK_INTERVAL = 100; // in milliseconds
+	
+	private static final Item END = new Item(null, -1);
+	
+	// receives the detections of each image; may be called by the thread 
+	// that submits images and by the worker thread and must not throw
+	public interface Handler
+	{
+		
+		public void handle(String key, List<Detection> detections);
+		
+		public void handleFailure(String key, Throwable e);
+		
+	}
+	
+	private final NeuralNetwork occurrencePredictor;
+	
+	private final NeuralNetwork directionPredictor;
+	
+	private final int batchSize;
+	
+	private final long maxWait; // in milliseconds
+	
+	private final float cascadeThreshold;
+	
+	private final Handler handler;
+	
+	private final BlockingQueue<Item> queue;
+	
+	private final Thread worker;
+	
+	private volatile Throwable workerFailure;
+	
+	public BatchScheduler(NeuralNetwork occurrencePredictor, NeuralNetwork directionPredictor, int batchSize, long maxWait, Handler handler)
+	{
+		this(occurrencePredictor, directionPredictor, batchSize, maxWait, NO_CASCADE, handler);
+	}
+	
+	public BatchScheduler(NeuralNetwork occurrencePredictor, NeuralNetwork directionPredictor, int batchSize, long maxWait, float cascadeThreshold, Handler handler)
+	{
+		if (batchSize < 1) throw new IllegalArgumentException();
+		if (maxWait < 0) throw new IllegalArgumentException();
+		this.occurrencePredictor = occurrencePredictor;
+		this.directionPredictor = directionPredictor;
+		this.batchSize = batchSize;
+		this.maxWait = maxWait;
+		this.cascadeThreshold = cascadeThreshold;
+		this.handler = handler;
+		queue = new ArrayBlockingQueue<Item>(QUEUED_BATCHES * batchSize);
+		worker = new Thread(this::runBatches, "trophallaxis batch scheduler");
+		worker.start();
+	}
+	
+	// queues the ROIs of the given contacts; contact i is shown by ROI i 
+	public void submit(String key, long timestamp, List<Contact> contacts, BufferedImage[] rois) throws InterruptedException
+	{
+		checkWorker();
+		Image image = new Image(key, timestamp, contacts, rois);
+		if (contacts.isEmpty()) complete(image);
+		else for (int i = 0; i < rois.length; i++) put(new Item(image, i));
+		checkFailure();
+	}
+	
+	// runs the remaining ROIs and waits until their detections are handled
+	public void close() throws InterruptedException
+	{
+		put(END);
+		worker.join();
+		checkFailure();
+	}
+	
+	// queues the item unless the worker thread ended, in which case it would
+	// never be taken from a full queue
+	private void put(Item item) throws InterruptedException
+	{
+		while (!queue.offer(item, CHECK_INTERVAL, TimeUnit.MILLISECONDS)) checkWorker();
+	}
+	
+	private void checkWorker()
+	{
+		checkFailure();
+		if (!worker.isAlive()) 
+		{
+			checkFailure();
+			throw new IllegalStateException("Batch scheduler: worker thread ended.");
+		}
+	}
+	
+	// if the worker thread failed, fails the images of ROIs that were queued
+	// after the worker drained the queue and rethrows the failure
+	private void checkFailure()
+	{
+		Throwable failure = workerFailure;
+		if (failure == null) return;
+		failImages(Collections.<Item>emptyList(), failure);
+		rethrow(failure);
+	}
+	
+	private static void rethrow(Throwable failure)
+	{
+		if (failure instanceof Error) throw (Error) failure;
+		throw new IllegalStateException("Batch scheduler: worker thread failed.", failure);
+	}
+	
+	private void runBatches()
+	{
+		ArrayList<Item> batch = new ArrayList<Item>(batchSize);
+		boolean isEnded = false;
+		try
+		{
+			while (!isEnded)
+			{
+				
+				// wait for the first ROI of the next batch
+				Item item = queue.take();
+				if (item == END) break;
+				batch.add(item);
+				
+				// add ROIs until the batch is full or has waited long enough
+				long deadline = item.submissionTime + maxWait;
+				while (batch.size() < batchSize)
+				{
+					long wait = deadline - System.currentTimeMillis();
+					item = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+					if (item == null) break;
+					if (item == END) 
+					{
+						isEnded = true;
+						break;
+					}
+					batch.add(item);
+				}
+				
+				// run batch
+				run(batch);
+				batch.clear();
+				
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (Throwable t)
+		{
+			
+			// fail the images of the current batch and of all queued ROIs;
+			// the failure is recorded first, so that submit stops queuing
+			workerFailure = t;
+			failImages(batch, t);
+			
+		}
+	}
+	
+	// fails the images of the given items and of all queued ROIs that were
+	// not handled yet; called by the worker thread when it fails and by 
+	// submitting threads afterwards
+	private synchronized void failImages(List<Item> items, Throwable failure)
+	{
+		ArrayList<Item> pending = new ArrayList<Item>(items);
+		queue.drainTo(pending);
+		for (Item item : pending)
+		{
+			if ((item == END) || (item.image.remaining == 0)) continue;
+			item.image.remaining = 0;
+			item.image.failure = failure;
+			complete(item.image);
+		}
+	}
+	
+	private void run(List<Item> batch)
+	{
+		
+		// predict the probability of trophallaxis and the probability that 
+		// bee 1 is the donor for all ROIs in the batch
+		BufferedImage[] rois = new BufferedImage[batch.size()];
+		for (int i = 0; i < rois.length; i++) rois[i] = batch.get(i).image.rois[batch.get(i).index];
+		float[] occurrenceProbabilities = null;
+		float[] bee1DonorProbabilities = null;
+		Exception failure = null;
+		try
+		{
+			occurrenceProbabilities = occurrencePredictor.predict(rois);
+			bee1DonorProbabilities = predictDirection(rois, occurrenceProbabilities);
+		}
+		catch (Exception e)
+		{
+			failure = e;
+		}
+		
+		// scatter probabilities back to the images
+		for (int i = 0; i < rois.length; i++)
+		{
+			Image image = batch.get(i).image;
+			int index = batch.get(i).index;
+			image.rois[index] = null;
+			if (failure != null) image.failure = failure;
+			else
+			{
+				image.occurrenceProbabilities[index] = occurrenceProbabilities[i];
+				image.bee1DonorProbabilities[index] = bee1DonorProbabilities[i];
+			}
+			image.remaining--;
+			if (image.remaining == 0) complete(image);
+		}
+		
+	}
+
+	private float[] predictDirection(BufferedImage[] rois, float[] occurrenceProbabilities)
+	{
+		
+		// run direction CNN on all ROIs unless in cascade mode
+		if (Float.isNaN(cascadeThreshold)) return directionPredictor.predict(rois);
+		
+		// otherwise, select likely trophallaxis
+		int[] selection = new int[rois.length];
+		int count = 0;
+		for (int i = 0; i < rois.length; i++) if (occurrenceProbabilities[i] > cascadeThreshold) selection[count++] = i;
+		
+		// run direction CNN on selected ROIs
+		float[] bee1DonorProbabilities = new float[rois.length];
+		Arrays.fill(bee1DonorProbabilities, NOT_PREDICTED);
+		if (count == 0) return bee1DonorProbabilities;
+		BufferedImage[] selectedROIs = new BufferedImage[count];
+		for (int i = 0; i < count; i++) selectedROIs[i] = rois[selection[i]];
+		float[] selectedProbabilities = directionPredictor.predict(selectedROIs);
+		for (int i = 0; i < count; i++) bee1DonorProbabilities[selection[i]] = selectedProbabilities[i];
+		return bee1DonorProbabilities;
+		
+	}
+
+	private void complete(Image image)
+	{
+		if (image.failure != null) 
+		{
+			handler.handleFailure(image.key, image.failure);
+			return;
+		}
+		ArrayList<Detection> detections = new ArrayList<Detection>(image.contacts.size());
+		for (int i = 0; i < image.contacts.size(); i++) detections.add(new Detection(image.timestamp, image.contacts.get(i).id1, image.contacts.get(i).id2, image.occurrenceProbabilities[i], image.bee1DonorProbabilities[i]));
+		handler.handle(image.key, detections);
+	}
+	
+	private static final class Image
+	{
+		
+		private final String key;
+		
+		private final long timestamp;
+		
+		private final List<Contact> contacts;
+		
+		private final BufferedImage[] rois;
+		
+		private final float[] occurrenceProbabilities;
+		
+		private final float[] bee1DonorProbabilities;
+		
+		// only accessed by the worker thread once the image was submitted, 
+		// or by failImages once the worker thread failed
+		private int remaining;
+		
+		private Throwable failure;
+		
+		public Image(String key, long timestamp, List<Contact> contacts, BufferedImage[] rois)
+		{
+			this.key = key;
+			this.timestamp = timestamp;
+			this.contacts = contacts;
+			this.rois = rois;
+			occurrenceProbabilities = new float[rois.length];
+			bee1DonorProbabilities = new float[rois.length];
+			remaining = rois.length;
+		}
+		
+	}
+	
+	private static final class Item
+	{
+		
+		private final Image image;
+		
+		private final int index;
+		
+		private final long submissionTime;
+		
+		public Item(Image image, int index)
+		{
+			this.image = image;
+			this.index = index;
+			submissionTime = System.currentTimeMillis();
+		}
+		
+	}
+	
+}
@@ -19,6 +19,7 @@
 
 package edu.illinois.gernat.btools.behavior.trophallaxis.deploy;
 
+import edu.illinois.gernat.btools.common.io.token.TokenWriter;
 import edu.illinois.gernat.btools.common.io.token.Tokenizable;
 
 /**
@@ -62,6 +63,15 @@ implements Tokenizable
 		return tokens;
 	}
 
+	@Override
+	public void writeTokens(TokenWriter writer)
+	{
+		writer.writeLong(timestamp);
+		writer.writeInt(id1);
+		writer.writeInt(id2);
+		writer.endLine();
+	}
+
 	@Override
 	public boolean equals(Object o)
 	{
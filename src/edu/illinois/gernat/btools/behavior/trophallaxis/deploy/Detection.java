@@ -19,6 +19,7 @@
 
 package edu.illinois.gernat.btools.behavior.trophallaxis.deploy;
 
+import edu.illinois.gernat.btools.common.io.token.TokenWriter;
 import edu.illinois.gernat.btools.common.io.token.Tokenizable;
 
 public class Detection
@@ -55,5 +56,16 @@ implements Tokenizable
 		tokens[4] = id1IsDonorProbability;
 		return tokens;
 	}
+
+	@Override
+	public void writeTokens(TokenWriter writer)
+	{
+		writer.writeLong(timestamp);
+		writer.writeInt(id1);
+		writer.writeInt(id2);
+		writer.writeFloat(trophallaxisProbability);
+		writer.writeFloat(id1IsDonorProbability);
+		writer.endLine();
+	}
 	
 }
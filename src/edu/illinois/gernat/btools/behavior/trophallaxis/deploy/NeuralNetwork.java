@@ -35,20 +35,27 @@ import java.util.Arrays;
 /**
  * Created by tobias on 10.12.16.
  */
-public class NeuralNetwork {
+public class NeuralNetwork implements AutoCloseable {
 
     private final int inputImageWidth;
     private final int inputImageHeight;
 
-    private final byte[] graphDef;
+    // the graph is imported and the session is opened once and then shared
+    // by all calls of predict; TensorFlow sessions can run concurrently
+    private final Graph graph;
+    private final Session session;
+
     public NeuralNetwork(String modelName, int inputImageWidth, int inputImageHeight) {
-        this.graphDef = readAllBytesOrExit(Paths.get(modelName));
         this.inputImageHeight = inputImageHeight;
         this.inputImageWidth = inputImageWidth;
+        this.graph = new Graph();
+        this.graph.importGraphDef(readAllBytesOrExit(Paths.get(modelName)));
+        this.session = new Session(graph);
     }
 
     /**
      * Predicts the probablity of images for containing a feature or not.
+     * This method can be called from several threads at the same time.
      *
      * @param images array of images to predict
      * @return a array with the probability for the feature.
@@ -56,31 +63,40 @@ public class NeuralNetwork {
     public float[] predict(BufferedImage[] images) {
         // set the input data
         IntBuffer x = IntBuffer.allocate(images.length*inputImageWidth*inputImageHeight);
+        int[] pixels = new int[inputImageWidth * inputImageHeight];
         for (BufferedImage image : images) {
-            x.put(image.getData().getPixels(0, 0, inputImageWidth, inputImageHeight, new int[inputImageWidth * inputImageHeight]));
+            x.put(image.getRaster().getPixels(0, 0, inputImageWidth, inputImageHeight, pixels));
         }
         x.flip();
-        Tensor<Integer> inputs = Tensor.create(new long[]{images.length, inputImageWidth, inputImageHeight},x);
 
-        try (Graph g = new Graph()) {
-            g.importGraphDef(this.graphDef);
-            try (Session s = new Session(g)) {
-            	@SuppressWarnings("unchecked")
-                Tensor<Float> results = (Tensor<Float>) s.runner().feed("input",inputs).fetch("output").run().get(0);
+        try (Tensor<Integer> inputs = Tensor.create(new long[]{images.length, inputImageWidth, inputImageHeight},x)) {
+            @SuppressWarnings("unchecked")
+            Tensor<Float> results = (Tensor<Float>) session.runner().feed("input",inputs).fetch("output").run().get(0);
+            try {
                 final long[] rshape = results.shape();
                 if (results.numDimensions() != 1 || rshape[0] != images.length) {
                     throw new RuntimeException(String.format("Expected model produce a [N] shaped where N is the number of images, instead it produced one with shape %s", Arrays.toString(rshape)));
                 }
                 float[] res = new float[images.length];
                 results.copyTo(res);
-                inputs.close();
-                results.close();
                 return res;
+            } finally {
+                results.close();
             }
         }
 
     }
 
+    /**
+     * Releases the session and the graph. The network cannot be used
+     * afterwards.
+     */
+    @Override
+    public void close() {
+        session.close();
+        graph.close();
+    }
+
     private static byte[] readAllBytesOrExit(Path path) {
         try {
             return Files.readAllBytes(path);
@@ -31,8 +31,8 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 
 import javax.imageio.ImageIO;
@@ -42,7 +42,9 @@ import edu.illinois.gernat.btools.behavior.trophallaxis.processing.PairProcessor
 import edu.illinois.gernat.btools.behavior.trophallaxis.processing.TrophallaxisProcessor;
 import edu.illinois.gernat.btools.behavior.trophallaxis.processing.image.MyLookUpOp;
 import edu.illinois.gernat.btools.behavior.trophallaxis.processing.roi.TrophaROI;
+import edu.illinois.gernat.btools.common.geometry.Angles;
 import edu.illinois.gernat.btools.common.geometry.Coordinate;
+import edu.illinois.gernat.btools.common.geometry.Grid;
 import edu.illinois.gernat.btools.common.geometry.Vector;
 import edu.illinois.gernat.btools.common.image.Images;
 import edu.illinois.gernat.btools.common.io.record.IndexedReader;
@@ -79,25 +81,77 @@ public class TrophallaxisDetector {
 	public static List<Contact> predictContacts(List<Record> records, int distanceLabelHead, int geometryMinDistance, int geometryMaxDistance, double geometryMaxAngleSum)
 	{
 		
-		// create contact for each pair of bees that meets the specified 
-		// requirements  
+		// do nothing if there is nothing to do
 		ArrayList<Contact> contacts = new ArrayList<Contact>();
 		int recordCount = records.size();
+		if (recordCount < 2) return contacts;
+		
+		// precompute head centers and orientation angles
+		float[] xs = new float[recordCount];
+		float[] ys = new float[recordCount];
+		double[] angles = new double[recordCount];
 		for (int i = 0; i < recordCount; i++)
 		{
-			Record record1 = records.get(i);
-			Coordinate headCenter1 = record1.orientation.clone().scale(distanceLabelHead).terminal(record1.center);
-			for (int j = i + 1; j < recordCount; j++)
+			Record record = records.get(i);
+			xs[i] = record.center.x + record.orientation.dx * distanceLabelHead;
+			ys[i] = record.center.y + record.orientation.dy * distanceLabelHead;
+			angles[i] = Math.atan2(record.orientation.dy, record.orientation.dx);
+		}
+		
+		// create contact for each pair of bees that meets the specified 
+		// requirements; candidates are looked up in a uniform grid whose 
+		// cells are at least geometryMaxDistance wide, so they are in adjacent
+		// cells, and are tested in list order
+		Grid grid = new Grid(xs, ys, geometryMaxDistance);
+		int[] candidates = new int[recordCount];
+		for (int i = 0; i < recordCount; i++)
+		{
+			int candidateCount = 0;
+			int column = grid.getColumn(xs[i]);
+			int row = grid.getRow(ys[i]);
+			for (int r = Math.max(0, row - 1); r <= Math.min(grid.rowCount - 1, row + 1); r++)
+			{
+				for (int c = Math.max(0, column - 1); c <= Math.min(grid.columnCount - 1, column + 1); c++)
+				{
+					int cell = r * grid.columnCount + c;
+					for (int k = grid.cellStarts[cell]; k < grid.cellStarts[cell + 1]; k++) if (grid.cellItems[k] > i) candidates[candidateCount++] = grid.cellItems[k];
+				}
+			}
+			Arrays.sort(candidates, 0, candidateCount);
+			for (int k = 0; k < candidateCount; k++)
 			{
-				Record record2 = records.get(j);
-				Coordinate headCenter2 = record2.orientation.clone().scale(distanceLabelHead).terminal(record2.center);
-				if (isContact(headCenter1, headCenter2, record1.orientation, record2.orientation, geometryMinDistance, geometryMaxDistance, geometryMaxAngleSum)) contacts.add(new Contact(record1.timestamp, record1.id, record2.id));
+				int j = candidates[k];
+				if (isContact(xs[i], ys[i], angles[i], xs[j], ys[j], angles[j], geometryMinDistance, geometryMaxDistance, geometryMaxAngleSum)) contacts.add(new Contact(records.get(i).timestamp, records.get(i).id, records.get(j).id));
 			}
 		}
 		return contacts;
 
 	}
 
+	// same test as isContact(Coordinate, Coordinate, Vector, Vector, int, 
+	// int, double) with the same float arithmetic, but on head center 
+	// coordinates and precomputed orientation angles, so that it does not 
+	// allocate
+	private static boolean isContact(float x1, float y1, double orientationAngle1, float x2, float y2, double orientationAngle2, int minDistance, int maxDistance, double maxAngleSum)
+	{
+		float distance = (float) Math.hypot(x2 - x1, y2 - y1);
+		if ((distance < minDistance) || (distance > maxDistance)) return false;
+		float angle1 = Math.abs(angleBetween(Math.atan2(y2 - y1, x2 - x1), orientationAngle1));
+		if (angle1 > maxAngleSum) return false;
+		float angle2 = Math.abs(angleBetween(Math.atan2(y1 - y2, x1 - x2), orientationAngle2));
+		if (angle1 + angle2 > maxAngleSum) return false;
+		return true;
+	}
+
+	// same as Vector.angleBetween, given the angles of both vectors
+	private static float angleBetween(double angle, double otherAngle)
+	{
+		float difference = (float) (otherAngle - angle);
+		if (difference < -Math.PI) return difference + Angles.TWO_PI;
+		else if (difference > Math.PI) return difference - Angles.TWO_PI;
+		else return difference;
+	}
+
 	private static void showVersionAndCopyright() 
 	{
 		System.out.println("Trophallaxis Detector (bTools) 0.18.0");
@@ -113,6 +167,15 @@ public class TrophallaxisDetector {
 		System.out.println("Detect trophllaxis between honey bees.");
 		System.out.println();  		
 		System.out.println("Parameters:");
+		System.out.println("- batch.max.wait          maximum time in milliseconds that image regions wait");
+		System.out.println("                          for a batch to fill up before the batch is run");
+		System.out.println("                          (default: 1000)");
+		System.out.println("- batch.size              number of image regions, taken from any number of");
+		System.out.println("                          images, that the CNNs process at once (default: 256)");
+		System.out.println("- cascade.threshold       if set, only image regions whose trophallaxis");
+		System.out.println("                          probability exceeds this threshold are passed to the");
+		System.out.println("                          direction CNN; the donor probability of all other");
+		System.out.println("                          regions is reported as -1");
 		System.out.println("- distance.label.head     average distance between the center of a bee's bCode");
 		System.out.println("                          bCode and the center of her head");
 		System.out.println("- filtered.data.file      file containing the bCode detection results for the");
@@ -172,7 +235,7 @@ public class TrophallaxisDetector {
         
 	}
 	
-	private static void processInputFiles(HashMap<String, String> ioMap, int distanceLabelHead, int geometryMinDistance, int geometryMaxDistance, double geometryMaxAngleSum, String bCodeDetectionPath) throws IOException, ParseException
+	private static void processInputFiles(HashMap<String, String> ioMap, int distanceLabelHead, int geometryMinDistance, int geometryMaxDistance, double geometryMaxAngleSum, String bCodeDetectionPath, int batchSize, long maxWait, float cascadeThreshold) throws IOException, ParseException, InterruptedException
 	{
 		
         // create CNNs
@@ -187,6 +250,38 @@ public class TrophallaxisDetector {
         PairProcessor roiExtractor = new TrophallaxisProcessor(null, null);
         roiExtractor.setRoiCalculator(new TrophaROI(96, 160));
         roiExtractor.addManipulator(new MyLookUpOp((short) 200));
+        
+        // run the CNNs on the ROIs of many images at once; the detections of
+        // an image are written once all of its ROIs were processed 
+        BatchScheduler scheduler = new BatchScheduler(occurenceDetector, directionDetector, batchSize, maxWait, cascadeThreshold, new BatchScheduler.Handler()
+		{
+			
+			@Override
+			public void handle(String inputFilename, List<Detection> detections)
+			{
+				
+				// write trophallaxis detections to file 
+				try
+				{
+					TokenWriter writer = new TokenWriter(ioMap.get(inputFilename));
+					for (Detection detection : detections) writer.writeTokens(detection); 
+					writer.close();
+				}
+				catch (Exception e)
+				{
+					handleFailure(inputFilename, e);
+				}
+				
+			}
+			
+			@Override
+			public void handleFailure(String inputFilename, Throwable e)
+			{
+				e.printStackTrace();
+				System.err.println("Caused by file: " + inputFilename);
+			}
+			
+		});
 		
 		// iterate over input files
 		for (String inputFilename : ioMap.keySet())
@@ -197,13 +292,19 @@ public class TrophallaxisDetector {
 			File outputFile = new File(outputFilename);
 			Files.deleteIfExists(outputFile.toPath());
 			
-			// detect trophallaxis in input file
-			List<Detection> trophallaxisDetectionResults = null;
+			// find candidate trophallaxis detections in input file and queue
+			// them for the CNNs; a file without bCode detections gets an 
+			// empty output file
 			try
 			{
 				long timestamp = Images.getTimestampFromFilename(inputFilename);
 				List<Record> bCodeDetections = indexedReader.readThis(timestamp);
-				if (bCodeDetections != null) trophallaxisDetectionResults = processImage(inputFilename, timestamp, distanceLabelHead, geometryMinDistance, geometryMaxDistance, geometryMaxAngleSum, bCodeDetections, roiExtractor, occurenceDetector, directionDetector);
+				if (bCodeDetections != null) processImage(inputFilename, timestamp, distanceLabelHead, geometryMinDistance, geometryMaxDistance, geometryMaxAngleSum, bCodeDetections, roiExtractor, scheduler);
+				else scheduler.submit(inputFilename, timestamp, new ArrayList<Contact>(), new BufferedImage[0]);
+			}
+			catch (InterruptedException e)
+			{
+				throw e;
 			}
 			catch (Exception e)
 			{
@@ -212,15 +313,13 @@ public class TrophallaxisDetector {
 				continue;
 			}
 			
-			// write trophallaxis detections to file 
-			TokenWriter writer = new TokenWriter(outputFilename);
-			if (trophallaxisDetectionResults != null) for (Detection detection : trophallaxisDetectionResults) writer.writeTokens(detection); 
-			writer.close();
-			
 		}	
 		
-		// close bCode reader 
+		// wait for the remaining detections and close bCode reader and CNNs
+		scheduler.close();
         indexedReader.close();
+        occurenceDetector.close();
+        directionDetector.close();
 		
 	}
 	
@@ -248,7 +347,7 @@ public class TrophallaxisDetector {
         
 	}
 	
-	private static List<Detection> processImage(String inputFilename, long timestamp, int distanceLabelHead, int geometryMinDistance, int geometryMaxDistance, double geometryMaxAngleSum, List<Record> bCodeDetections, PairProcessor roiExtractor, NeuralNetwork trophaPredictor, NeuralNetwork directionPredictor) throws IOException, ParseException
+	private static void processImage(String inputFilename, long timestamp, int distanceLabelHead, int geometryMinDistance, int geometryMaxDistance, double geometryMaxAngleSum, List<Record> bCodeDetections, PairProcessor roiExtractor, BatchScheduler scheduler) throws IOException, ParseException, InterruptedException
 	{
 		
         // read input image
@@ -266,11 +365,8 @@ public class TrophallaxisDetector {
         }
         
         // generate candidate trophallaxis detections based on the bees' 
-        // position an orientation relative to each other; return empty 
-        // list if there are none
-        LinkedList<Detection> trophallaxisDetections = new LinkedList<Detection>();
+        // position an orientation relative to each other
         List<Contact> contacts = predictContacts(bCodeDetections, distanceLabelHead, geometryMinDistance, geometryMaxDistance, geometryMaxAngleSum);
-        if (contacts.isEmpty()) return trophallaxisDetections;
         
         // for each candidate detection, extract rectangular image region 
         // showing the heads the two bees and space between the heads 
@@ -283,14 +379,9 @@ public class TrophallaxisDetector {
             rois[i] = roiExtractor.processSingle(greatImage, Tuple.of(curBee1, curBee2));
         }
 
-        // for all ROIs, obtain probability of trophallaxis and the  
+        // queue ROIs for obtaining the probability of trophallaxis and the  
         // probability that bee 1 is the donor  
-        float[] occurenceProbabilities = trophaPredictor.predict(rois); 
-        float[] bee1DonorProbabilities = directionPredictor.predict(rois); 
-
-        // return trophallaxis detections
-        for (int i = 0; i < contacts.size(); i++) trophallaxisDetections.add(new Detection(timestamp, contacts.get(i).id1, contacts.get(i).id2, occurenceProbabilities[i], bee1DonorProbabilities[i]));
-        return trophallaxisDetections;
+        scheduler.submit(inputFilename, timestamp, contacts, rois);
 
 	}
 	
@@ -313,7 +404,7 @@ public class TrophallaxisDetector {
 		else throw new IllegalStateException("Trophallaxis detector: unsupported input file extension");
 	}
 	
-    public static void main(String[] args) throws IOException, ParseException 
+    public static void main(String[] args) throws IOException, ParseException, InterruptedException 
     {
     	
 		// show version, copyright, and usage information if no arguments were 
@@ -340,12 +431,17 @@ public class TrophallaxisDetector {
         int geometryMinDistance = parameters.getInteger("geometry.min.distance"); // 0
         String bCodeDetectionPath = parameters.getString("filtered.data.file");
         String inputFile = parameters.getString("input.file");
+        int batchSize = parameters.exists("batch.size") ? parameters.getInteger("batch.size") : BatchScheduler.DEFAULT_BATCH_SIZE;
+        if (batchSize < 1) throw new IllegalStateException("Trophallaxis detector: batch.size must be at least 1");
+        long maxWait = parameters.exists("batch.max.wait") ? parameters.getInteger("batch.max.wait") : BatchScheduler.DEFAULT_MAX_WAIT;
+        if (maxWait < 0) throw new IllegalStateException("Trophallaxis detector: batch.max.wait must not be negative");
+        float cascadeThreshold = parameters.exists("cascade.threshold") ? (float) parameters.getDouble("cascade.threshold") : BatchScheduler.NO_CASCADE;
         
 		// map input files to output files
 		HashMap<String, String> ioMap = mapInputToOutput(inputFile);
 
 		// process input files
-        processInputFiles(ioMap, distanceLabelHead, geometryMinDistance, geometryMaxDistance, geometryMaxAngleSum, bCodeDetectionPath);
+        processInputFiles(ioMap, distanceLabelHead, geometryMinDistance, geometryMaxDistance, geometryMaxAngleSum, bCodeDetectionPath, batchSize, maxWait, cascadeThreshold);
 
     }
 
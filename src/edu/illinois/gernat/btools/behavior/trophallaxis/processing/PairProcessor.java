@@ -21,6 +21,7 @@ package edu.illinois.gernat.btools.behavior.trophallaxis.processing;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.util.ArrayList;
 import java.util.Map;
 
@@ -84,9 +85,19 @@ public abstract class PairProcessor {
             subImageDesc = roiCalculator.calcROI(p);
         }
 
-        hive = manipulateHive(hive, p);
+        // work on a copy of the part of the hive image the roi is sampled
+        // from, so that the cost does not depend on the size of the hive
+        // image and the hive image is not changed
+        Rectangle region = getSourceRegion(hive, subImageDesc);
+        BufferedImage part = null;
+        if (!region.isEmpty()) {
+            WritableRaster raster = hive.getRaster().createCompatibleWritableRaster(region.width, region.height);
+            raster.setDataElements(0, 0, hive.getRaster().createChild(region.x, region.y, region.width, region.height, 0, 0, null));
+            part = new BufferedImage(hive.getColorModel(), raster, hive.isAlphaPremultiplied(), null);
+            part = manipulateHive(part, region.getLocation(), p);
+        }
 
-        BufferedImage manipulated = clipROI(hive, subImageDesc);
+        BufferedImage manipulated = clipROI(part, region.getLocation(), subImageDesc);
         if (manipulated == null) {
             return null;
         }
@@ -96,7 +107,25 @@ public abstract class PairProcessor {
         return manipulated;
     }
 
-    protected abstract BufferedImage manipulateHive(BufferedImage hive, Tuple<LabeledBee, LabeledBee> p);
+    /**
+     * Returns the part of the hive image that is needed to clip the roi, i.e., the bounds of the
+     * roi in the hive image, cut to the hive image.
+     *
+     * @param hive         great image
+     * @param subImageDesc description of the roi
+     * @return region of the hive image
+     */
+    protected abstract Rectangle getSourceRegion(BufferedImage hive, CenterROI subImageDesc);
+
+    /**
+     * Manipulates a copy of a region of the hive image.
+     *
+     * @param part   copy of the region
+     * @param origin position of the region in the hive image
+     * @param p      description of the current pair of bees
+     * @return manipulated region
+     */
+    protected abstract BufferedImage manipulateHive(BufferedImage part, Point origin, Tuple<LabeledBee, LabeledBee> p);
 
     public void addManipulator(Operator m) {
         this.imageProcessors.add(m);
@@ -106,6 +135,15 @@ public abstract class PairProcessor {
         this.roiCalculator = roiCalculator;
     }
 
-    protected abstract BufferedImage clipROI(BufferedImage hive, CenterROI subImageDesc);
+    /**
+     * Clips the roi from a region of the hive image.
+     *
+     * @param part         region returned by manipulateHive, or null if the roi lies outside of
+     *                     the hive image
+     * @param origin       position of the region in the hive image
+     * @param subImageDesc description of the roi in hive image coordinates
+     * @return clipped image
+     */
+    protected abstract BufferedImage clipROI(BufferedImage part, Point origin, CenterROI subImageDesc);
 
 }
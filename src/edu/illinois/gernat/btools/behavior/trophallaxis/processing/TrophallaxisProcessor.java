@@ -21,6 +21,7 @@ package edu.illinois.gernat.btools.behavior.trophallaxis.processing;
 
 import java.awt.*;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 
@@ -38,12 +39,26 @@ import edu.illinois.gernat.btools.common.parameters.Tuple;
 public class TrophallaxisProcessor extends PairProcessor {
     public static final int LABEl_COLOR = 0x383838;
     public static final float EXPAND = 0.2f; // only use because the calculated corners of the QR-Label are too small (mostly inside of the label)
+    private static final int SOURCE_MARGIN = 2;
 
     public TrophallaxisProcessor(ImageSource imageSource, TrophallaxisWriter writer) {
         super(imageSource, writer);
     }
 
-    protected BufferedImage manipulateHive(BufferedImage hive, Tuple<LabeledBee, LabeledBee> p) {
+    protected Rectangle getSourceRegion(BufferedImage hive, CenterROI subImageDesc) {
+        // bounds of the rotated roi, extended by the pixels that bilinear
+        // interpolation reads around it
+        Rectangle region;
+        try {
+            region = createTransform(subImageDesc).createInverse().createTransformedShape(new Rectangle(0, 0, (int) subImageDesc.width, (int) subImageDesc.height)).getBounds();
+        } catch (NoninvertibleTransformException e) {
+            throw new IllegalStateException(e); // rotation and translation are always invertible
+        }
+        region.grow(SOURCE_MARGIN, SOURCE_MARGIN);
+        return region.intersection(new Rectangle(0, 0, hive.getWidth(), hive.getHeight()));
+    }
+
+    protected BufferedImage manipulateHive(BufferedImage part, Point origin, Tuple<LabeledBee, LabeledBee> p) {
         LabeledBee beeA = p.a;
         LabeledBee beeB = p.b;
 
@@ -62,30 +77,34 @@ public class TrophallaxisProcessor extends PairProcessor {
             p2.addPoint((int) bLabel.x, (int) bLabel.y);
         }
 
-        Graphics2D graphics2D = (Graphics2D) hive.getGraphics();
+        // move label polygons from hive image to region coordinates
+        p1.translate(-origin.x, -origin.y);
+        p2.translate(-origin.x, -origin.y);
+        Graphics2D graphics2D = (Graphics2D) part.getGraphics();
         graphics2D.setColor(new Color(LABEl_COLOR));
         graphics2D.fillPolygon(p1);
         graphics2D.fillPolygon(p2);
         graphics2D.dispose();
-        return hive;
+        return part;
     }
 
-    protected BufferedImage clipROI(BufferedImage hive, CenterROI subImageDesc) {
+    protected BufferedImage clipROI(BufferedImage part, Point origin, CenterROI subImageDesc) {
         // create image for the result
         BufferedImage pair = new BufferedImage((int) subImageDesc.width, (int) subImageDesc.height, BufferedImage.TYPE_BYTE_GRAY);
         Graphics2D background = pair.createGraphics();
         background.setColor(BACKGROUND_COLOR);
         background.fillRect(0, 0, pair.getWidth(), pair.getHeight());
         background.dispose();
+        if (part == null) {
+            return pair;
+        }
 
         // rotation and clipping
-        AffineTransform adjustments = new AffineTransform();
-        Coordinate imageCoords = new Coordinate(subImageDesc.center.x, -subImageDesc.center.y);
-        adjustments.rotate(subImageDesc.rotAngle, subImageDesc.width / 2.0, subImageDesc.height / 2.0);
-        adjustments.translate(-(imageCoords.x - subImageDesc.width / 2.0), -(imageCoords.y - subImageDesc.height / 2.0));
+        AffineTransform adjustments = createTransform(subImageDesc);
+        adjustments.translate(origin.x, origin.y);
 
         AffineTransformOp op = new AffineTransformOp(adjustments, AffineTransformOp.TYPE_BILINEAR);
-        pair = op.filter(hive, pair);
+        pair = op.filter(part, pair);
 
         if (pair.getType() != BufferedImage.TYPE_BYTE_GRAY) {
             BufferedImage dimg = new BufferedImage(pair.getWidth(), pair.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
@@ -97,4 +116,13 @@ public class TrophallaxisProcessor extends PairProcessor {
 
         return pair;
     }
+
+    // maps hive image coordinates to roi coordinates
+    private static AffineTransform createTransform(CenterROI subImageDesc) {
+        AffineTransform adjustments = new AffineTransform();
+        Coordinate imageCoords = new Coordinate(subImageDesc.center.x, -subImageDesc.center.y);
+        adjustments.rotate(subImageDesc.rotAngle, subImageDesc.width / 2.0, subImageDesc.height / 2.0);
+        adjustments.translate(-(imageCoords.x - subImageDesc.width / 2.0), -(imageCoords.y - subImageDesc.height / 2.0));
+        return adjustments;
+    }
 }
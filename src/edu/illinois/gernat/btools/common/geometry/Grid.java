@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.common.geometry;
+
+import java.util.Arrays;
+
+// Uniform grid over a non-empty set of points. Cells are at least
+// minCellSize wide, so two points that are at most minCellSize apart in x
+// and y are in the same or in adjacent cells. The points of cell
+// row * columnCount + column are cellItems[cellStarts[cell]] to
+// cellItems[cellStarts[cell + 1] - 1], in ascending order.
+public final class Grid
+{
+
+	private static final int MAX_CELLS_PER_ITEM = 4;
+
+	public final double minX;
+
+	public final double minY;
+
+	public final double cellSize;
+
+	public final int columnCount;
+
+	public final int rowCount;
+
+	public final int[] cellStarts;
+
+	public final int[] cellItems; // item indices sorted by cell
+
+	public Grid(float[] xs, float[] ys, float minCellSize)
+	{
+
+		// determine extent of the grid; cells are made slightly larger
+		// than required so that rounding cannot push two items that are
+		// minCellSize apart into non-adjacent cells, and larger still if
+		// there would be many more cells than items
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < xs.length; i++)
+		{
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		double cellSize = minCellSize > 0 ? minCellSize * (1 + 1e-6) : 1;
+		while ((maxX - minX) / cellSize * ((maxY - minY) / cellSize) > (double) MAX_CELLS_PER_ITEM * xs.length) cellSize *= 2;
+		this.minX = minX;
+		this.minY = minY;
+		this.cellSize = cellSize;
+		columnCount = (int) ((maxX - minX) / cellSize) + 1;
+		rowCount = (int) ((maxY - minY) / cellSize) + 1;
+
+		// sort items by cell, keeping their order within each cell
+		int[] cells = new int[xs.length];
+		cellStarts = new int[columnCount * rowCount + 1];
+		for (int i = 0; i < xs.length; i++)
+		{
+			cells[i] = getRow(ys[i]) * columnCount + getColumn(xs[i]);
+			cellStarts[cells[i] + 1]++;
+		}
+		for (int i = 0; i < columnCount * rowCount; i++) cellStarts[i + 1] += cellStarts[i];
+		int[] next = Arrays.copyOf(cellStarts, columnCount * rowCount);
+		cellItems = new int[xs.length];
+		for (int i = 0; i < xs.length; i++) cellItems[next[cells[i]]++] = i;
+
+	}
+
+	public int getColumn(float x)
+	{
+		return (int) ((x - minX) / cellSize);
+	}
+
+	public int getRow(float y)
+	{
+		return (int) ((y - minY) / cellSize);
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.common.io.record;
+
+import java.io.IOException;
+
+import edu.illinois.gernat.btools.common.parameters.Parameters;
+
+public class BinaryConverter
+{
+
+	public static void toBinary(String sourceFileName, String destinationFileName) throws IOException
+	{
+		RecordReader reader = new RecordReader(sourceFileName);
+		BinaryRecordWriter writer = new BinaryRecordWriter(destinationFileName);
+		while (reader.hasMoreRecords()) writer.writeRecord(reader.readRecord());
+		writer.close();
+		reader.close();
+	}
+
+	public static void toText(String sourceFileName, String destinationFileName) throws IOException
+	{
+		RecordReader reader = new RecordReader(sourceFileName);
+		RecordWriter writer = new RecordWriter(destinationFileName);
+		while (reader.hasMoreRecords()) writer.writeRecord(reader.readRecord());
+		writer.close();
+		reader.close();
+	}
+
+	private static void showVersionAndCopyright() 
+	{
+		System.out.println("BinaryConverter (bTools) 0.18.0");
+		System.out.println("Copyright (C) 2017-2024 University of Illinois Board of Trustees");
+		System.out.println("License AGPLv3+: GNU AGPL version 3 or later <http://www.gnu.org/licenses/>");
+		System.out.println("This is free software: you are free to change and redistribute it.");
+		System.out.println("There is NO WARRANTY, to the extent permitted by law.");
+	}
+
+	private static void showUsageInformation() 
+	{
+		System.out.println("Usage: java -jar binary_converter.jar PARAMETER=VALUE...");
+		System.out.println("Convert bCode detections from text to binary format or from binary to");
+		System.out.println("text format, depending on the format of the input file.");
+		System.out.println();  		
+		System.out.println("Parameters:");  		
+		System.out.println("- input.file  the text or binary input file");
+		System.out.println("- output.file the output file");
+	}	
+	
+	public static void main(String[] args) throws IOException
+	{
+		
+		// show version, copyright, and usage information if no arguments were 
+		// given on the command line 
+		if (args.length == 0) 
+		{
+			showVersionAndCopyright();
+			System.out.println();
+			showUsageInformation();		
+			System.exit(1);
+		}
+		
+		// get parameters
+		Parameters parameters = Parameters.INSTANCE;
+		parameters.initialize(args);
+		String inputFile = parameters.getString("input.file");
+		String outputFile = parameters.getString("output.file");
+		
+		// convert file
+		if (BinaryRecordFormat.isBinary(inputFile)) toText(inputFile, outputFile);
+		else toBinary(inputFile, outputFile);
+		
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.common.io.record;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+// Binary format of bCode detection files. A file starts with MAGIC and
+// VERSION, followed by blocks of records. A block starts with its record
+// count and the timestamp of its first record. The fields of its records
+// follow column by column: all timestamps, then all top left x
+// coordinates, and so on. Each timestamp is stored as the difference to the
+// timestamp of the previous record in the block. All records with the same
+// timestamp are in the same block. All values are little-endian.
+public final class BinaryRecordFormat
+{
+
+	// the bytes "bREC"
+	public static final int MAGIC = 0x43455262;
+
+	public static final int VERSION = 1;
+
+	public static final int FILE_HEADER_SIZE = 8;
+
+	public static final int BLOCK_HEADER_SIZE = 12;
+
+	// timestamp difference, six pattern coordinates, id, and support
+	public static final int RECORD_SIZE = 4 + 8 * 2;
+
+	// number of records after which a block is finished at the next new
+	// timestamp
+	public static final int PREFERRED_BLOCK_SIZE = 4096;
+
+	// columns after the timestamp column, in file order
+	private static final int TL_PATTERN_X = 0;
+
+	private static final int TL_PATTERN_Y = 1;
+
+	private static final int TR_PATTERN_X = 2;
+
+	private static final int TR_PATTERN_Y = 3;
+
+	private static final int BL_PATTERN_X = 4;
+
+	private static final int BL_PATTERN_Y = 5;
+
+	private static final int ID = 6;
+
+	private static final int SUPPORT = 7;
+
+	private BinaryRecordFormat()
+	{
+	}
+
+	public static boolean isBinary(String filename) throws IOException
+	{
+		FileInputStream in = new FileInputStream(filename);
+		try
+		{
+			byte[] bytes = new byte[4];
+			int count = 0;
+			while (count < bytes.length)
+			{
+				int read = in.read(bytes, count, bytes.length - count);
+				if (read == -1) return false;
+				count += read;
+			}
+			return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	public static int getBlockSize(int recordCount)
+	{
+		return BLOCK_HEADER_SIZE + recordCount * RECORD_SIZE;
+	}
+
+	public static void writeFileHeader(ByteBuffer buffer)
+	{
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+	}
+
+	public static void checkFileHeader(ByteBuffer buffer) throws IOException
+	{
+		if (buffer.getInt() != MAGIC) throw new IOException("Not a binary record file.");
+		int version = buffer.getInt();
+		if (version != VERSION) throw new IOException("Unsupported binary record file version: " + version);
+	}
+
+	// writes the given records as one block; the buffer must have room for
+	// getBlockSize(records.size()) bytes
+	public static void writeBlock(ByteBuffer buffer, List<Record> records)
+	{
+		int count = records.size();
+		long previousTimestamp = records.get(0).timestamp;
+		buffer.putInt(count);
+		buffer.putLong(previousTimestamp);
+		for (Record record : records)
+		{
+			buffer.putInt((int) (record.timestamp - previousTimestamp));
+			previousTimestamp = record.timestamp;
+		}
+		for (int column = TL_PATTERN_X; column <= SUPPORT; column++)
+		{
+			for (Record record : records) buffer.putShort((short) getField(record, column));
+		}
+	}
+
+	// decodes the records of the block at the buffer's position whose
+	// timestamp is in [from, to] and moves the position past the block
+	public static void readBlock(ByteBuffer buffer, long from, long to, List<Record> records)
+	{
+		int start = buffer.position();
+		int count = buffer.getInt();
+		long timestamp = buffer.getLong();
+		int columnStart = start + BLOCK_HEADER_SIZE + 4 * count;
+		for (int i = 0; i < count; i++)
+		{
+			timestamp += buffer.getInt();
+			if ((timestamp < from) || (timestamp > to)) continue;
+			float tlX = getColumn(buffer, columnStart, count, TL_PATTERN_X, i);
+			float tlY = getColumn(buffer, columnStart, count, TL_PATTERN_Y, i);
+			float trX = getColumn(buffer, columnStart, count, TR_PATTERN_X, i);
+			float trY = getColumn(buffer, columnStart, count, TR_PATTERN_Y, i);
+			float blX = getColumn(buffer, columnStart, count, BL_PATTERN_X, i);
+			float blY = getColumn(buffer, columnStart, count, BL_PATTERN_Y, i);
+			records.add(new Record(timestamp, getColumn(buffer, columnStart, count, ID, i), tlX, tlY, trX, trY, blX, blY, getColumn(buffer, columnStart, count, SUPPORT, i), 0));
+		}
+		buffer.position(start + getBlockSize(count));
+	}
+
+	// returns the timestamps of the records in the block at the buffer's
+	// position, which only needs to hold the block header and the timestamp
+	// column
+	public static long[] readBlockTimestamps(ByteBuffer buffer)
+	{
+		int count = buffer.getInt();
+		long timestamp = buffer.getLong();
+		long[] timestamps = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			timestamp += buffer.getInt();
+			timestamps[i] = timestamp;
+		}
+		return timestamps;
+	}
+
+	// returns whether the record can be stored without losing information
+	// beyond the rounding of pattern coordinates that text files also do
+	public static boolean isRepresentable(Record record)
+	{
+		for (int column = TL_PATTERN_X; column <= SUPPORT; column++)
+		{
+			int value = getField(record, column);
+			if ((value < Short.MIN_VALUE) || (value > Short.MAX_VALUE)) return false;
+		}
+		return true;
+	}
+
+	private static int getField(Record record, int column)
+	{
+		switch (column)
+		{
+			case TL_PATTERN_X: return Math.round(record.tlPattern.x);
+			case TL_PATTERN_Y: return Math.round(record.tlPattern.y);
+			case TR_PATTERN_X: return Math.round(record.trPattern.x);
+			case TR_PATTERN_Y: return Math.round(record.trPattern.y);
+			case BL_PATTERN_X: return Math.round(record.blPattern.x);
+			case BL_PATTERN_Y: return Math.round(record.blPattern.y);
+			case ID: return record.id;
+			case SUPPORT: return record.support;
+			default: throw new IllegalArgumentException();
+		}
+	}
+
+	private static short getColumn(ByteBuffer buffer, int columnStart, int count, int column, int index)
+	{
+		return buffer.getShort(columnStart + 2 * (column * count + index));
+	}
+
+}
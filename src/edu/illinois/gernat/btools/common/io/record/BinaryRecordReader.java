@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.common.io.record;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+// Reads records in the binary format described in BinaryRecordFormat one
+// block at a time. RecordReader uses this class for binary files, so most
+// code does not need to use it directly.
+public class BinaryRecordReader
+{
+
+	private FileInputStream in;
+
+	private FileChannel channel;
+
+	private ByteBuffer buffer;
+
+	private ArrayList<Record> block;
+
+	private int index;
+
+	public BinaryRecordReader(String filename) throws IOException
+	{
+		in = new FileInputStream(filename);
+		channel = in.getChannel();
+		block = new ArrayList<Record>();
+		buffer = ByteBuffer.allocate(BinaryRecordFormat.getBlockSize(BinaryRecordFormat.PREFERRED_BLOCK_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+		if (!read(BinaryRecordFormat.FILE_HEADER_SIZE, false)) throw new IOException("Not a binary record file.");
+		BinaryRecordFormat.checkFileHeader(buffer);
+	}
+
+	public BinaryRecordReader(File file) throws IOException
+	{
+		this(file.getAbsolutePath());
+	}
+
+	public boolean hasMoreRecords() throws IOException
+	{
+		while (index == block.size())
+		{
+			if (!readBlock()) return false;
+		}
+		return true;
+	}
+
+	public Record readRecord() throws IOException
+	{
+		if (!hasMoreRecords()) throw new IOException();
+		Record record = block.get(index);
+		block.set(index++, null);
+		return record;
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+		in.close();
+	}
+
+	private boolean readBlock() throws IOException
+	{
+		if (!read(BinaryRecordFormat.BLOCK_HEADER_SIZE, false)) return false;
+		int count = buffer.getInt(0);
+		int size = BinaryRecordFormat.getBlockSize(count);
+		if (buffer.capacity() < size)
+		{
+			ByteBuffer header = buffer;
+			buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.put(header);
+		}
+		else buffer.position(BinaryRecordFormat.BLOCK_HEADER_SIZE);
+		buffer.limit(size);
+		read(size, true);
+		block.clear();
+		index = 0;
+		BinaryRecordFormat.readBlock(buffer, Long.MIN_VALUE, Long.MAX_VALUE, block);
+		return true;
+	}
+
+	// fills the buffer up to the given limit and prepares it for reading.
+	// returns false if the file ended before the first byte; throws an
+	// exception if it ended later.
+	private boolean read(int limit, boolean continued) throws IOException
+	{
+		if (!continued) buffer.clear();
+		buffer.limit(limit);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer) == -1)
+			{
+				if ((!continued) && (buffer.position() == 0)) return false;
+				throw new EOFException("Binary record file is truncated.");
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.common.io.record;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Writes records in the binary format described in BinaryRecordFormat.
+// Records are kept until their block is written, so they must not be
+// changed after they were passed to the writer.
+public class BinaryRecordWriter
+{
+
+	private FileOutputStream out;
+
+	private FileChannel channel;
+
+	private ByteBuffer buffer;
+
+	private ArrayList<Record> block;
+
+	public BinaryRecordWriter(String filename) throws IOException
+	{
+		out = new FileOutputStream(filename);
+		channel = out.getChannel();
+		block = new ArrayList<Record>();
+		buffer = ByteBuffer.allocate(BinaryRecordFormat.getBlockSize(BinaryRecordFormat.PREFERRED_BLOCK_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+		BinaryRecordFormat.writeFileHeader(buffer);
+		write();
+	}
+
+	public BinaryRecordWriter(File file) throws IOException
+	{
+		this(file.getAbsolutePath());
+	}
+
+	public void writeRecord(Record record) throws IOException
+	{
+		if (!BinaryRecordFormat.isRepresentable(record)) throw new IllegalArgumentException("Record cannot be stored in binary format.");
+
+		// start a new block at a new timestamp if the block is full or if the
+		// timestamp difference does not fit into the timestamp column
+		if (!block.isEmpty())
+		{
+			long previousTimestamp = block.get(block.size() - 1).timestamp;
+			long difference = record.timestamp - previousTimestamp;
+			if ((difference != 0) && ((block.size() >= BinaryRecordFormat.PREFERRED_BLOCK_SIZE) || (difference != (int) difference))) writeBlock();
+		}
+		block.add(record);
+
+	}
+
+	public void writeRecords(List<Record> records) throws IOException
+	{
+		for (Record record : records) writeRecord(record);
+	}
+
+	public void close() throws IOException
+	{
+		if (!block.isEmpty()) writeBlock();
+		channel.close();
+		out.close();
+	}
+
+	private void writeBlock() throws IOException
+	{
+		int size = BinaryRecordFormat.getBlockSize(block.size());
+		if (buffer.capacity() < size) buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		BinaryRecordFormat.writeBlock(buffer, block);
+		write();
+		block.clear();
+	}
+
+	private void write() throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+}
@@ -24,12 +24,18 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
+import edu.illinois.gernat.btools.common.io.token.TokenScanner;
+
 /**
  * @version 0.12.0
  * @since 0.12.0
@@ -43,16 +49,31 @@ public class IndexedReader
 	public static final int FIELD_CURSOR = 1;
 	
 	public static String FILED_SEPARATOR = ",";
-		
-	private HashMap<Long, Long> cursorIndex;
-		
-	private HashMap<Long, Long> previousIndex;
 	
-	private HashMap<Long, Long> nextIndex;
-
+	// the record file is mapped in segments of this size because a single
+	// mapping cannot exceed 2 GB
+	private static final int SEGMENT_SIZE = 1 << 30;
+	
+	// sorted timestamps and, at the same index, the position of their first 
+	// record and the position after their last record
+	private long[] timestamps;
+	
+	private long[] cursors;
+	
+	private long[] ends;
+	
 	private RandomAccessFile file;
 	
-	private ArrayList<Long> timestamps;
+	private FileChannel channel;
+	
+	private long fileLength;
+	
+	private MappedByteBuffer[] segments;
+	
+	private boolean isBinary;
+	
+	// fields of the text record that was parsed last
+	private long[] fields;
 	
 	public IndexedReader(File file) throws IOException
 	{
@@ -62,135 +83,211 @@ public class IndexedReader
 	public IndexedReader(String fileName) throws IOException
 	{
 
-		// the in-memory indices
-		cursorIndex = new HashMap<Long, Long>();
-		previousIndex = new HashMap<Long, Long>();
-		nextIndex = new HashMap<Long, Long>();
+		// open file
+		file = new RandomAccessFile(fileName, "r");
+		channel = file.getChannel();
+		fileLength = channel.size();
+		segments = new MappedByteBuffer[(int) ((fileLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+		isBinary = BinaryRecordFormat.isBinary(fileName);
+		fields = new long[Record.FIELD_COUNT];
 		
-		// load index from file
-		timestamps = new ArrayList<Long>();
+		// load index from file; the index lists cursors in file order, so the
+		// records of a timestamp end where the records of the next line begin.
+		// in binary files, the cursor of a timestamp is the position of the 
+		// block that contains its records.
+		int count = 0;
+		timestamps = new long[1024];
+		cursors = new long[1024];
 		BufferedReader reader = new BufferedReader(new FileReader(Indexer.getIndexFilenameFor(fileName)));
 		String line = null;
 		while ((line = reader.readLine()) != null)
 		{
-			String[] tokens = line.split(FILED_SEPARATOR, -1);
-			Long timestamp = Long.parseLong(tokens[FIELD_TIMESTAMP]);
-			cursorIndex.put(timestamp, Long.parseLong(tokens[FIELD_CURSOR]));
-			timestamps.add(timestamp);
-		}
-		reader.close();			
-		
-		// map each timestamp to the timestamp immediately before and after it
-		int count = timestamps.size();
-		Collections.sort(timestamps);
-		for (int i = 0; i < count; i++)
-		{
-			if (i > 0) previousIndex.put(timestamps.get(i), timestamps.get(i - 1));
-			if (i < count - 1) nextIndex.put(timestamps.get(i), timestamps.get(i + 1));
+			if (count == timestamps.length)
+			{
+				timestamps = Arrays.copyOf(timestamps, 2 * count);
+				cursors = Arrays.copyOf(cursors, 2 * count);
+			}
+			int separator = line.indexOf(FILED_SEPARATOR);
+			timestamps[count] = Long.parseLong(line.substring(0, separator));
+			cursors[count] = Long.parseLong(line.substring(separator + FILED_SEPARATOR.length()));
+			count++;
 		}
+		reader.close();
+		timestamps = Arrays.copyOf(timestamps, count);
+		cursors = Arrays.copyOf(cursors, count);
+		ends = new long[count];
+		for (int i = 0; i < count; i++) ends[i] = i < count - 1 ? cursors[i + 1] : fileLength;
 		
-		// open file
-		file = new RandomAccessFile(fileName, "r");
+		// sort by timestamp unless the file is already sorted
+		boolean isSorted = true;
+		for (int i = 1; (i < count) && (isSorted); i++) isSorted = timestamps[i - 1] <= timestamps[i]; 
+		if (!isSorted) sortIndex();
 
 	}
 	
 	public List<Record> readPrevious(long timestamp) throws IOException
 	{
-		Long previousTimestamp = previousIndex.get(timestamp);
-		if (previousTimestamp == null) return null;
-		else return readThis(previousTimestamp);
+		int index = Arrays.binarySearch(timestamps, timestamp);
+		if (index <= 0) return null;
+		else return read(index - 1);
 	}
 
 	public Record readPrevious(long timestamp, int id) throws IOException
 	{
-		Long previousTimestamp = previousIndex.get(timestamp);
-		if (previousTimestamp == null) return null;
-		else return readRecord(previousTimestamp, id);
+		return find(readPrevious(timestamp), id);
 	}
 
 	public List<Record> readThis(long timestamp) throws IOException
 	{
-		
-		// jump to first byte of first record for this timestamp
-		if (!cursorIndex.containsKey(timestamp)) return null;
-		long currentCursorPosition = cursorIndex.get(timestamp);
-		file.seek(currentCursorPosition);
-
-		// calculate how many bytes to read until next timestamp
-		long nextCursorPosition = nextIndex.containsKey(timestamp) ? cursorIndex.get(nextIndex.get(timestamp)) : file.length();
-		int bufferSize = (int) (nextCursorPosition - currentCursorPosition);
-				
-		// read all records of this timestamp into buffer
-		byte[] buffer = new byte[bufferSize];
-		file.readFully(buffer);
-		
-		// convert byte array to buffered reader
-		String s = new String(buffer);
-		StringReader stringReader = new StringReader(s);
-		BufferedReader reader = new BufferedReader(stringReader);
-		
-		// read records
-		ArrayList<Record> list = new ArrayList<Record>();
-		String line = null;
-		while ((line = reader.readLine()) != null)
-		{
-			String[] tokens = line.split(",", -1);
-			Record record = new Record(tokens);
-			list.add(record);
-		}
-		
-		// return records  
-		return list;
-		
+		int index = Arrays.binarySearch(timestamps, timestamp);
+		if (index < 0) return null;
+		else return read(index);
 	}
 	
 	public List<Record> readNext(long timestamp) throws IOException
 	{
-		Long nextTimestamp = nextIndex.get(timestamp);
-		if (nextTimestamp == null) return null;
-		else return readThis(nextTimestamp);		
+		int index = Arrays.binarySearch(timestamps, timestamp);
+		if ((index < 0) || (index == timestamps.length - 1)) return null;
+		else return read(index + 1);
 	}
 
 	public Record readNext(long timestamp, int id) throws IOException
 	{
-		Long nextTimestamp = nextIndex.get(timestamp);
-		if (nextTimestamp == null) return null;
-		else return readRecord(nextTimestamp, id);		
+		return find(readNext(timestamp), id);
 	}
 	
 	public Record readRecord(long timestamp, int id) throws IOException
 	{
-		List<Record> records = readThis(timestamp);
-		for (Record record : records) if (record.id == id) return record;
-		return null;//FIXME
-//		Record tmp = null;
-//		for (Record record : records) 
-//		{
-//			if (record.id == id) 
-//			{
-//				if (tmp != null) throw new IllegalStateException();
-//				else tmp = record;
-//			}
-//		}
-//		return tmp;
+		return find(readThis(timestamp), id);
 	}
 
 	public List<Long> getSortedTimestamps()
 	{		
-		return timestamps;
+		return new AbstractList<Long>()
+		{
+
+			@Override
+			public Long get(int index)
+			{
+				return timestamps[index];
+			}
+
+			@Override
+			public int size()
+			{
+				return timestamps.length;
+			}
+			
+		};
 	}
 
 	public Long getTimestampRelativeTo(Long timestamp, int distance)
 	{
-		if (distance < 0) for (int i = distance; (i < 0) && (timestamp != null); i++) timestamp = previousIndex.get(timestamp);
-		else if (distance > 0) for (int i = 0; (i < distance) && (timestamp != null); i++) timestamp = nextIndex.get(timestamp);
-		else if (cursorIndex.containsKey(timestamp) == false) timestamp = null;
-		return timestamp;
+		if (timestamp == null) return null;
+		int index = Arrays.binarySearch(timestamps, timestamp);
+		if (index < 0) return null;
+		index += distance;
+		if ((index < 0) || (index >= timestamps.length)) return null;
+		return timestamps[index];
 	}
 	
 	public void close() throws IOException
 	{
+		segments = null;
+		channel.close();
 		file.close();
 	}
+	
+	private static Record find(List<Record> records, int id)
+	{
+		if (records == null) return null;
+		for (Record record : records) if (record.id == id) return record;
+		return null;//FIXME
+	}
+	
+	// reads the records of the timestamp at the given index of the index
+	private List<Record> read(int index) throws IOException
+	{
+		
+		// find buffer that holds the records
+		ArrayList<Record> list = new ArrayList<Record>();
+		long start = cursors[index];
+		long end = ends[index];
+		if (isBinary)
+		{
+			ByteBuffer block = getBuffer(start, BinaryRecordFormat.BLOCK_HEADER_SIZE);
+			int count = block.getInt(block.position());
+			end = start + BinaryRecordFormat.getBlockSize(count);
+		}
+		ByteBuffer buffer = getBuffer(start, (int) (end - start));
+		
+		// parse records 
+		if (isBinary) BinaryRecordFormat.readBlock(buffer, timestamps[index], timestamps[index], list);
+		else
+		{
+			int position = buffer.position();
+			int limit = position + (int) (end - start);
+			while (position < limit)
+			{
+				position = TokenScanner.parseLine(buffer, position, limit, (byte) ',', fields);
+				if (position < 0) position = -position;
+				else list.add(new Record(fields[Record.TIMESTAMP], (int) fields[Record.ID], fields[Record.TL_PATTERN_X], fields[Record.TL_PATTERN_Y], fields[Record.TR_PATTERN_X], fields[Record.TR_PATTERN_Y], fields[Record.BL_PATTERN_X], fields[Record.BL_PATTERN_Y], (int) fields[Record.SUPPORT], 0));
+			}
+		}
+		
+		// return records
+		return list;
+		
+	}
+	
+	// returns a mapped buffer whose position is at the given file position
+	// and which holds at least the given number of bytes. the buffer is a 
+	// shared segment unless the bytes extend beyond its end.
+	private ByteBuffer getBuffer(long position, int length) throws IOException
+	{
+		int segment = (int) (position / SEGMENT_SIZE);
+		int offset = (int) (position % SEGMENT_SIZE);
+		if ((long) offset + length > SEGMENT_SIZE) 
+		{
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			return buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		if (segments[segment] == null)
+		{
+			long segmentStart = (long) segment * SEGMENT_SIZE;
+			segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.min(SEGMENT_SIZE, fileLength - segmentStart));
+			segments[segment].order(ByteOrder.LITTLE_ENDIAN);
+		}
+		segments[segment].position(offset);
+		return segments[segment];
+	}
+	
+	private void sortIndex()
+	{
+		Integer[] order = new Integer[timestamps.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Long.compare(timestamps[a], timestamps[b]);
+			}
+			
+		});
+		long[] sortedTimestamps = new long[order.length];
+		long[] sortedCursors = new long[order.length];
+		long[] sortedEnds = new long[order.length];
+		for (int i = 0; i < order.length; i++)
+		{
+			sortedTimestamps[i] = timestamps[order[i]];
+			sortedCursors[i] = cursors[order[i]];
+			sortedEnds[i] = ends[order[i]];
+		}
+		timestamps = sortedTimestamps;
+		cursors = sortedCursors;
+		ends = sortedEnds;
+	}
 		
 }
@@ -21,11 +21,24 @@
 package edu.illinois.gernat.btools.common.io.record;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import edu.illinois.gernat.btools.common.io.token.TokenScanner;
 import edu.illinois.gernat.btools.common.io.token.TokenWriter;
 import edu.illinois.gernat.btools.common.parameters.Parameters;
 
@@ -33,6 +46,8 @@ public class Indexer
 {
 
 	private static final String INDEX_FILE_EXTENSION = ".idx";
+	
+	private static final int READ_BUFFER_SIZE = 1048576;
 
 	public static String getIndexFilenameFor(String filename)
 	{
@@ -41,6 +56,11 @@ public class Indexer
 
 	public static void index(String recordFileName, int eolByteCount) throws IOException
 	{
+		if (BinaryRecordFormat.isBinary(recordFileName)) 
+		{
+			indexBinary(recordFileName);
+			return;
+		}
 		BufferedReader reader = new BufferedReader(new FileReader(new File(recordFileName)), 1024000); 
 		TokenWriter writer = new TokenWriter(getIndexFilenameFor(recordFileName), ",");
 		String line = null;
@@ -60,6 +80,201 @@ public class Indexer
 		reader.close();
 	}
 
+	// indexes a text record file by splitting it into one chunk per thread.
+	// each chunk is indexed from the exact byte positions of its lines, so 
+	// the line separator does not need to be known. chunk indices are 
+	// merged in file order; a timestamp whose records span two chunks is 
+	// only indexed in the first chunk.
+	public static void indexInParallel(String recordFileName, int threadCount) throws IOException, InterruptedException
+	{
+		if (BinaryRecordFormat.isBinary(recordFileName)) 
+		{
+			indexBinary(recordFileName);
+			return;
+		}
+		
+		// index chunks
+		FileInputStream in = new FileInputStream(recordFileName);
+		FileChannel channel = in.getChannel();
+		long size = channel.size();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		List<Future<ChunkIndexer>> chunks = new ArrayList<Future<ChunkIndexer>>();
+		for (int i = 0; i < threadCount; i++) chunks.add(executor.submit(new ChunkIndexer(channel, size * i / threadCount, size * (i + 1) / threadCount)));
+		executor.shutdown();
+		
+		// merge chunk indices
+		TokenWriter writer = new TokenWriter(getIndexFilenameFor(recordFileName), ",");
+		try
+		{
+			boolean isFirst = true;
+			long tMinus1 = 0;
+			for (Future<ChunkIndexer> future : chunks)
+			{
+				ChunkIndexer chunk = future.get();
+				for (int i = 0; i < chunk.count; i++)
+				{
+					if ((!isFirst) && (chunk.timestamps[i] == tMinus1)) continue;
+					writer.writeTokens(chunk.timestamps[i], chunk.positions[i]);
+					tMinus1 = chunk.timestamps[i];
+					isFirst = false;
+				}
+			}
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			else throw new IllegalStateException(e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+			writer.close();
+			channel.close();
+			in.close();
+		}
+		
+	}
+
+	// indexes each timestamp of a binary record file with the position of
+	// the block that contains its records; only block headers and timestamp
+	// columns are read
+	private static void indexBinary(String recordFileName) throws IOException
+	{
+		FileInputStream in = new FileInputStream(recordFileName);
+		FileChannel channel = in.getChannel();
+		TokenWriter writer = new TokenWriter(getIndexFilenameFor(recordFileName), ",");
+		ByteBuffer buffer = ByteBuffer.allocate(BinaryRecordFormat.BLOCK_HEADER_SIZE + 4 * BinaryRecordFormat.PREFERRED_BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		long position = BinaryRecordFormat.FILE_HEADER_SIZE;
+		long size = channel.size();
+		long tMinus1 = 0;
+		boolean isFirst = true;
+		while (position < size)
+		{
+			
+			// read block header and timestamp column
+			buffer.clear();
+			buffer.limit(BinaryRecordFormat.BLOCK_HEADER_SIZE);
+			readFully(channel, buffer, position);
+			int count = buffer.getInt(0);
+			int length = BinaryRecordFormat.BLOCK_HEADER_SIZE + 4 * count;
+			if (buffer.capacity() < length) buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.clear();
+			buffer.limit(length);
+			readFully(channel, buffer, position);
+			
+			// index new timestamps
+			for (long t : BinaryRecordFormat.readBlockTimestamps(buffer))
+			{
+				if ((isFirst) || (t != tMinus1))
+				{
+					writer.writeTokens(t, position);
+					tMinus1 = t;
+					isFirst = false;
+				}
+			}
+			position += BinaryRecordFormat.getBlockSize(count);
+			
+		}
+		writer.close();
+		channel.close();
+		in.close();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position + buffer.position());
+			if (read == -1) throw new EOFException("Binary record file is truncated.");
+		}
+		buffer.flip();
+	}
+
+	// indexes the lines of a text record file that start in [start, end)
+	private static final class ChunkIndexer implements Callable<ChunkIndexer>
+	{
+		
+		private final FileChannel channel;
+		
+		private final long start;
+		
+		private final long end;
+		
+		private long[] timestamps;
+		
+		private long[] positions;
+		
+		private int count;
+		
+		public ChunkIndexer(FileChannel channel, long start, long end)
+		{
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			timestamps = new long[1024];
+			positions = new long[1024];
+		}
+		
+		@Override
+		public ChunkIndexer call() throws IOException
+		{
+			
+			// a chunk that does not begin the file begins after the first 
+			// line separator at or after the byte before its start
+			ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			buffer.flip();
+			long position = start == 0 ? 0 : start - 1;
+			long readPosition = position;
+			boolean isSkipping = start > 0;
+			boolean isEndOfFile = false;
+			long[] timestamp = new long[1];
+			
+			// scan lines 
+			while (position < end)
+			{
+				
+				// refill buffer unless it holds the whole line
+				int lineEnd = buffer.position();
+				while ((lineEnd < buffer.limit()) && (buffer.get(lineEnd) != '\n')) lineEnd++;
+				if ((lineEnd == buffer.limit()) && (!isEndOfFile))
+				{
+					buffer.compact();
+					if (!buffer.hasRemaining()) buffer = ByteBuffer.allocate(2 * buffer.capacity()).put(buffer.flip());
+					int read = channel.read(buffer, readPosition);
+					if (read == -1) isEndOfFile = true;
+					else readPosition += read;
+					buffer.flip();
+					continue;
+				}
+				if (!buffer.hasRemaining()) break;
+				
+				// index line
+				int next = lineEnd < buffer.limit() ? lineEnd + 1 : lineEnd;
+				if (isSkipping) isSkipping = false;
+				else if (TokenScanner.parseLine(buffer, buffer.position(), next, (byte) ',', timestamp) > 0) add(timestamp[0], position);
+				position += next - buffer.position();
+				buffer.position(next);
+				
+			}
+			return this;
+			
+		}
+		
+		private void add(long t, long position)
+		{
+			if ((count > 0) && (timestamps[count - 1] == t)) return;
+			if (count == timestamps.length)
+			{
+				timestamps = Arrays.copyOf(timestamps, 2 * count);
+				positions = Arrays.copyOf(positions, 2 * count);
+			}
+			timestamps[count] = t;
+			positions[count] = position;
+			count++;
+		}
+		
+	}
+	
 	private static void showVersionAndCopyright() 
 	{
 		System.out.println("Indexer (bTools) 0.18.0");
@@ -75,7 +290,9 @@ public class Indexer
 		System.out.println("Index bCode detection results.");
 		System.out.println();  		
 		System.out.println("Parameters:");  		
-		System.out.println("- file the file to be indexed");
+		System.out.println("- file         the file to be indexed");
+		System.out.println("- thread.count number of threads indexing parts of the file in parallel");
+		System.out.println("               (default: 1)");
 	}
 	
 	public static int determineLineSeparatorLength(String file) throws IOException 
@@ -107,7 +324,7 @@ public class Indexer
 	    return -1;
 	}
 	
-	public static void main(String[] args) throws NumberFormatException, IOException
+	public static void main(String[] args) throws NumberFormatException, IOException, InterruptedException
 	{
 		
 		// show version, copyright, and usage information if no arguments were 
@@ -124,13 +341,11 @@ public class Indexer
 		Parameters parameters = Parameters.INSTANCE;
 		parameters.initialize(args);		
 		String file = parameters.getString("file");
-		
-		// determine line separator size
-		int eolByteCount = determineLineSeparatorLength(file);
-		if (eolByteCount == -1) throw new IllegalStateException("Could not determine line separator size.");
+		int threadCount = parameters.exists("thread.count") ? parameters.getInteger("thread.count") : 1;
+		if (threadCount < 1) throw new IllegalStateException("Indexer: thread.count must be at least 1");
 			
 		// index file
-		Indexer.index(file, eolByteCount); 
+		Indexer.indexInParallel(file, threadCount); 
 		
 	}
 
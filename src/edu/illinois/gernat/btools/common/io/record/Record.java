@@ -19,9 +19,14 @@
 
 package edu.illinois.gernat.btools.common.io.record;
 
+import java.io.IOException;
+
 import edu.illinois.gernat.btools.common.geometry.Angles;
 import edu.illinois.gernat.btools.common.geometry.Coordinate;
 import edu.illinois.gernat.btools.common.geometry.Vector;
+import edu.illinois.gernat.btools.common.io.token.TokenScanner;
+import edu.illinois.gernat.btools.common.io.token.TokenWriter;
+import edu.illinois.gernat.btools.common.io.token.Tokenizable;
 
 /**
  * @version 0.12.0
@@ -29,6 +34,7 @@ import edu.illinois.gernat.btools.common.geometry.Vector;
  * @author Tim Gernat
  */
 public class Record 
+implements Tokenizable
 {
 	
 	private static final float BCODE_BIG_SQUARE_SMALL_SQUARE_DISTANCE = 5.700877f; //FIXME this duplicates information in BCode class
@@ -96,6 +102,18 @@ public class Record
 		deriveValues();
 	}
 
+	public Record(long timestamp, int id, float tlX, float tlY, float trX, float trY, float blX, float blY, int support, int errorCorrectionCount)
+	{
+		this.timestamp = timestamp;
+		this.id = id;
+		this.tlPattern = new Coordinate(tlX, tlY);
+		this.trPattern = new Coordinate(trX, trY);
+		this.blPattern = new Coordinate(blX, blY);
+		this.support = support;
+		this.errorCorrectionCount = errorCorrectionCount;
+		deriveValues();
+	}
+
 	public Record(Record record)
 	{
 		this.timestamp = record.timestamp;
@@ -121,6 +139,27 @@ public class Record
 		deriveValues();
 	}
 
+	// reads the fields of the scanner's current line in the order of 
+	// Record(String[]) and moves the scanner to the next line
+	public Record(TokenScanner scanner) throws IOException
+	{
+		timestamp = scanner.nextLong();
+		float tlX = scanner.nextInt();
+		float tlY = scanner.nextInt();
+		float trX = scanner.nextInt();
+		float trY = scanner.nextInt();
+		float blX = scanner.nextInt();
+		float blY = scanner.nextInt();
+		tlPattern = new Coordinate(tlX, tlY);
+		trPattern = new Coordinate(trX, trY);
+		blPattern = new Coordinate(blX, blY);
+		id = scanner.nextInt();
+		support = scanner.nextInt();
+		scanner.nextLine();
+		deriveValues();
+	}
+
+	@Override
 	public Object[] toTokens()
 	{
 		Object[] tokens = new Object[FIELD_COUNT];
@@ -137,6 +176,21 @@ public class Record
 		return tokens;
 	}
 
+	@Override
+	public void writeTokens(TokenWriter writer)
+	{
+		writer.writeLong(timestamp);
+		writer.writeInt(Math.round(tlPattern.x));
+		writer.writeInt(Math.round(tlPattern.y));
+		writer.writeInt(Math.round(trPattern.x));
+		writer.writeInt(Math.round(trPattern.y));
+		writer.writeInt(Math.round(blPattern.x));
+		writer.writeInt(Math.round(blPattern.y));
+		writer.writeInt(id);
+		writer.writeInt(support);
+		writer.endLine();
+	}
+
 	public void roundPatternCoordinates()
 	{
 		tlPattern.round();
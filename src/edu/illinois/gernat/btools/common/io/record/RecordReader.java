@@ -24,7 +24,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import edu.illinois.gernat.btools.common.io.token.TokenReader;
+import edu.illinois.gernat.btools.common.io.token.TokenScanner;
 
 /**
  * @version 0.12.0
@@ -34,9 +34,9 @@ import edu.illinois.gernat.btools.common.io.token.TokenReader;
 public class RecordReader
 {
 
-	private static final int DEFAULT_BUFFER_SIZE = 1048576;
-
-	private TokenReader reader;
+	private TokenScanner scanner;
+	
+	private BinaryRecordReader binaryReader;
 	
 	private Record record;
 	
@@ -44,7 +44,8 @@ public class RecordReader
 	
 	public RecordReader(String filename) throws IOException
 	{
-		reader = new TokenReader(filename, ",", false, DEFAULT_BUFFER_SIZE);
+		if (BinaryRecordFormat.isBinary(filename)) binaryReader = new BinaryRecordReader(filename);
+		else scanner = new TokenScanner(filename);
 		timestamp = -1;
 	}
 
@@ -55,7 +56,7 @@ public class RecordReader
 
 	public boolean hasMoreRecords() throws IOException 
 	{
-		return (record != null) || (reader.hasMoreLines());		
+		return (record != null) || (hasMoreInput());		
 	}
 
 	public Record readRecord() throws IOException 
@@ -67,7 +68,7 @@ public class RecordReader
 			record = this.record;
 			this.record = null;
 		}
-		else record = new Record(reader.readTokens()); 
+		else record = readInput(); 
 		timestamp = record.timestamp;
 		return record; 		
 	}
@@ -82,9 +83,9 @@ public class RecordReader
 			timestamp = record.timestamp;
 			record = null;
 		}
-		while (reader.hasMoreLines())
+		while (hasMoreInput())
 		{
-			record = new Record(reader.readTokens());
+			record = readInput();
 			if (timestamp == -1) timestamp = record.timestamp;
 			if (timestamp == record.timestamp) 
 			{
@@ -103,7 +104,20 @@ public class RecordReader
 	
 	public void close() throws IOException
 	{
-		reader.close();
+		if (binaryReader != null) binaryReader.close();
+		else scanner.close();
+	}
+
+	private boolean hasMoreInput() throws IOException
+	{
+		if (binaryReader != null) return binaryReader.hasMoreRecords();
+		else return scanner.hasMoreLines();
+	}
+
+	private Record readInput() throws IOException
+	{
+		if (binaryReader != null) return binaryReader.readRecord();
+		else return new Record(scanner);
 	}
 
 }
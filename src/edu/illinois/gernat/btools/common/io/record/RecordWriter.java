@@ -35,9 +35,13 @@ public class RecordWriter
 
 	private TokenWriter writer;
 	
+	private TokenWriter indexWriter;
+	
+	private long timestamp;
+	
 	public RecordWriter(String filename) throws IOException
 	{
-		writer = new TokenWriter(filename, ",");
+		this(filename, false);
 	}
 
 	public RecordWriter(File file) throws IOException
@@ -45,19 +49,35 @@ public class RecordWriter
 		this(file.getAbsolutePath());
 	}
 	
+	// if requested, the index that Indexer would create for the file is 
+	// written along with the records
+	public RecordWriter(String filename, boolean writeIndex) throws IOException
+	{
+		writer = new TokenWriter(filename, ",");
+		if (writeIndex) indexWriter = new TokenWriter(Indexer.getIndexFilenameFor(filename), ",");
+	}
+
 	public void writeRecord(Record record) throws IOException
 	{
-		writer.writeTokens(record.toTokens());
+		if ((indexWriter != null) && ((writer.getByteCount() == 0) || (record.timestamp != timestamp)))
+		{
+			indexWriter.writeLong(record.timestamp);
+			indexWriter.writeLong(writer.getByteCount());
+			indexWriter.endLine();
+			timestamp = record.timestamp;
+		}
+		writer.writeTokens(record);
 	}
 	
 	public void writeRecords(List<Record> records) throws IOException
 	{
-		for (Record record : records) writer.writeTokens(record.toTokens());
+		for (Record record : records) writeRecord(record);
 	}
 		
 	public void close() throws IOException
 	{
 		writer.close();
+		if (indexWriter != null) indexWriter.close();
 	}
 	
 }
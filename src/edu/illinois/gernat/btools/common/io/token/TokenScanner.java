@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.common.io.token;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Reads delimited integers from a text file without creating Strings. The 
+// file is read into a large direct buffer and numbers are parsed from its
+// bytes in place. Like a cursor, nextLong and nextInt read the next field
+// of the current line, and nextLine skips the rest of the line. The static
+// parse methods implement the same rules for buffers that already hold the
+// bytes, such as mapped record files: a number is an optional minus sign 
+// followed by 1 to 18 digits and ends at the delimiter, a line separator 
+// or the limit. Lines end at \n; \r is allowed before it.
+public class TokenScanner
+{
+
+	private static final int DEFAULT_BUFFER_SIZE = 4194304;
+
+	private static final int END_OF_FILE = -1;
+
+	private static final int MAX_DIGIT_COUNT = 18;
+
+	// a number with sign and all digits plus the byte that ends it
+	private static final int MAX_FIELD_LENGTH = MAX_DIGIT_COUNT + 2;
+
+	private FileInputStream in;
+
+	private FileChannel channel;
+
+	private ByteBuffer buffer;
+
+	private byte delimiter;
+
+	private boolean isEndOfFile;
+
+	private long[] value = new long[1];
+
+	public TokenScanner(String filename) throws IOException
+	{
+		this(filename, ',', DEFAULT_BUFFER_SIZE);
+	}
+
+	public TokenScanner(String filename, char delimiter) throws IOException
+	{
+		this(filename, delimiter, DEFAULT_BUFFER_SIZE);
+	}
+
+	public TokenScanner(String filename, char delimiter, int bufferSize) throws IOException
+	{
+		in = new FileInputStream(filename);
+		channel = in.getChannel();
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MAX_FIELD_LENGTH));
+		buffer.flip();
+		this.delimiter = (byte) delimiter;
+	}
+
+	public boolean hasMoreLines() throws IOException
+	{
+		return peek() != END_OF_FILE;
+	}
+
+	// reads the next field of the current line as a number and moves the 
+	// cursor past the delimiter that follows it, if any
+	public long nextLong() throws IOException
+	{
+		fill(MAX_FIELD_LENGTH);
+		int end = parseLong(buffer, buffer.position(), buffer.limit(), delimiter, value, 0);
+		buffer.position(end);
+		if ((end < buffer.limit()) && (buffer.get(end) == delimiter)) skip();
+		return value[0];
+	}
+
+	public int nextInt() throws IOException
+	{
+		long value = nextLong();
+		if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) throw new IOException("Number out of range.");
+		return (int) value;
+	}
+
+	// moves the cursor to the beginning of the next line
+	public void nextLine() throws IOException
+	{
+		while (true)
+		{
+			int b = peek();
+			if (b == END_OF_FILE) return;
+			skip();
+			if (b == '\n') return;
+		}
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+		in.close();
+	}
+
+	// parses the number that starts at the given position into 
+	// values[index] and returns the position of the byte that ends it
+	public static int parseLong(ByteBuffer buffer, int position, int limit, byte delimiter, long[] values, int index) throws IOException
+	{
+		boolean isNegative = (position < limit) && (buffer.get(position) == '-');
+		if (isNegative) position++;
+		long value = 0;
+		int digitCount = 0;
+		while ((position < limit) && (digitCount <= MAX_DIGIT_COUNT))
+		{
+			byte b = buffer.get(position);
+			if ((b < '0') || (b > '9')) break;
+			value = value * 10 + (b - '0');
+			digitCount++;
+			position++;
+		}
+		if ((digitCount == 0) || (digitCount > MAX_DIGIT_COUNT)) throw new IOException("Malformed number.");
+		if (position < limit)
+		{
+			byte b = buffer.get(position);
+			if ((b != delimiter) && (b != '\r') && (b != '\n')) throw new IOException("Malformed number.");
+		}
+		values[index] = isNegative ? -value : value;
+		return position;
+	}
+
+	// parses the first fields.length fields of the line that starts at the 
+	// given position and returns the position of the next line, or its 
+	// negation if the line is empty. further fields are skipped.
+	public static int parseLine(ByteBuffer buffer, int position, int limit, byte delimiter, long[] fields) throws IOException
+	{
+		
+		// find end of line
+		int end = position;
+		while ((end < limit) && (buffer.get(end) != '\n')) end++;
+		int next = end < limit ? end + 1 : limit;
+		int first = position;
+		while ((first < end) && (buffer.get(first) == '\r')) first++;
+		if (first == end) return -next;
+		
+		// parse fields
+		for (int i = 0; i < fields.length; i++)
+		{
+			if (i > 0) 
+			{
+				if ((position == end) || (buffer.get(position) != delimiter)) throw new IOException("Malformed record.");
+				position++;
+			}
+			position = parseLong(buffer, position, end, delimiter, fields, i);
+		}
+		return next;
+		
+	}
+
+	private int peek() throws IOException
+	{
+		fill(1);
+		if (!buffer.hasRemaining()) return END_OF_FILE;
+		return buffer.get(buffer.position());
+	}
+
+	// makes sure that the buffer holds at least the given number of bytes, 
+	// unless the file ends before
+	private void fill(int count) throws IOException
+	{
+		if ((buffer.remaining() >= count) || (isEndOfFile)) return;
+		buffer.compact();
+		while (buffer.position() < count)
+		{
+			if (channel.read(buffer) == -1)
+			{
+				isEndOfFile = true;
+				break;
+			}
+		}
+		buffer.flip();
+	}
+
+	private void skip()
+	{
+		buffer.position(buffer.position() + 1);
+	}
+
+}
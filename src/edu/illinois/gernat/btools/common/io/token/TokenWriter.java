@@ -19,10 +19,9 @@
 
 package edu.illinois.gernat.btools.common.io.token;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 
 /**
  * @version 0.12.0
@@ -32,11 +31,26 @@ import java.io.PrintWriter;
 public class TokenWriter
 {
 	
-	private static final int DEFAULT_BUFFER_SIZE = 8192;
+	private static final int DEFAULT_BUFFER_SIZE = 1048576;
 	
-	private PrintWriter writer;
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
 	
-	private String delimiter;
+	private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes();
+	
+	// length of the longest formatted long
+	private static final int MAX_LONG_LENGTH = LONG_MIN_VALUE.length;
+	
+	private FileOutputStream out;
+	
+	private byte[] buffer;
+	
+	private int count;
+	
+	private byte[] delimiter;
+	
+	private boolean isLineStart;
+	
+	private long flushedByteCount;
 
 	public TokenWriter(String filename, boolean append) throws IOException
 	{
@@ -60,13 +74,16 @@ public class TokenWriter
 
     public TokenWriter(String filename, String delimiter, boolean append, int bufferSize) throws IOException  
 	{
-		writer = new PrintWriter(new BufferedWriter(new FileWriter(filename, append), bufferSize));
-		this.delimiter = delimiter;
+		out = new FileOutputStream(filename, append);
+		flushedByteCount = out.getChannel().position();
+		buffer = new byte[Math.max(bufferSize, MAX_LONG_LENGTH)];
+		this.delimiter = delimiter.getBytes();
+		isLineStart = true;
 	}
 
 	public void writeTokens(Tokenizable tokenizable)
 	{
-		writeTokens(tokenizable.toTokens());
+		tokenizable.writeTokens(this);
 	}
 
     public void writeTokens(String[] tokens)
@@ -76,17 +93,141 @@ public class TokenWriter
     
 	public void writeTokens(Object... tokens)
 	{
-		for (int i = 0; i < tokens.length; i++) 
+		for (Object token : tokens) 
 		{
-			writer.print(tokens[i]);
-			if (i < tokens.length - 1) writer.print(delimiter);
+			if ((token instanceof Long) || (token instanceof Integer) || (token instanceof Short) || (token instanceof Byte)) writeLong(((Number) token).longValue());
+			else writeString(String.valueOf(token));
 		}
-		writer.println();
+		endLine();
+	}
+	
+	// the following methods write one token each to the current line; the
+	// digits of integers are formatted straight into the output buffer
+	public void writeLong(long value)
+	{
+		startToken();
+		if (count + MAX_LONG_LENGTH > buffer.length) flush();
+		if (value == Long.MIN_VALUE)
+		{
+			System.arraycopy(LONG_MIN_VALUE, 0, buffer, count, LONG_MIN_VALUE.length);
+			count += LONG_MIN_VALUE.length;
+			return;
+		}
+		if (value < 0)
+		{
+			buffer[count++] = '-';
+			value = -value;
+		}
+		int length = 1;
+		for (long v = value / 10; v != 0; v /= 10) length++;
+		for (int i = count + length - 1; i >= count; i--)
+		{
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		count += length;
+	}
+	
+	public void writeInt(int value)
+	{
+		writeLong(value);
+	}
+	
+	// floats are formatted like Float.toString, so that files look the same
+	// as when written with writeTokens
+	public void writeFloat(float value)
+	{
+		writeString(Float.toString(value));
+	}
+	
+	public void writeDouble(double value)
+	{
+		writeString(Double.toString(value));
+	}
+
+	public void writeString(String value)
+	{
+		startToken();
+		int length = value.length();
+		for (int i = 0; i < length; i++)
+		{
+			if (value.charAt(i) >= 0x80) 
+			{
+				write(value.getBytes());
+				return;
+			}
+		}
+		for (int i = 0; i < length; i++)
+		{
+			if (count == buffer.length) flush();
+			buffer[count++] = (byte) value.charAt(i);
+		}
+	}
+	
+	public void endLine()
+	{
+		write(LINE_SEPARATOR);
+		isLineStart = true;
+	}
+	
+	// returns the number of bytes in the file, including buffered bytes; this
+	// is the file position of the next line if the current line has ended 
+	public long getByteCount()
+	{
+		return flushedByteCount + count;
 	}
 	
 	public void close() 
 	{
-		writer.close();
+		flush();
+		try
+		{
+			out.close();
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private void startToken()
+	{
+		if (isLineStart) isLineStart = false;
+		else write(delimiter);
+	}
+	
+	private void write(byte[] bytes)
+	{
+		if (count + bytes.length > buffer.length) flush();
+		if (bytes.length > buffer.length)
+		{
+			try
+			{
+				out.write(bytes);
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+			flushedByteCount += bytes.length;
+			return;
+		}
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+	
+	private void flush()
+	{
+		try
+		{
+			out.write(buffer, 0, count);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		flushedByteCount += count;
+		count = 0;
 	}
 	
 }
@@ -31,4 +31,11 @@ public interface Tokenizable
 	
 	public Object[] toTokens();
 	
+	// writes the tokens as one line; implementations can write typed tokens
+	// instead, which avoids boxing them
+	public default void writeTokens(TokenWriter writer)
+	{
+		writer.writeTokens(toTokens());
+	}
+	
 }
@@ -157,8 +157,6 @@ public class BCode
 	
 	public float moduleSize; //TODO this variable is never actually being used. remove and replace its use with a better calculation in metaID.java for only use in consolidator (as in zxing's Detector.java)
 	
-	public BitMatrix bits;
-	
 	public int data;
 	
 	public boolean isDecoded;
@@ -204,22 +202,37 @@ public class BCode
 		beeID.topRight = topRight;
 		
 		// don't create an ID if its module size would be smaller than 1
-		beeID.moduleSize = (BigSquare.MODULE_COUNT * finderPattern.moduleSize + SmallSquare.MODULE_COUNT * bottomLeft.moduleSize + SmallSquare.MODULE_COUNT * topRight.moduleSize) / (BigSquare.MODULE_COUNT + SmallSquare.MODULE_COUNT + SmallSquare.MODULE_COUNT);  
+		beeID.moduleSize = getModuleSize(finderPattern, bottomLeft, topRight);
 		if (beeID.moduleSize < 1.0f) return null; 
 
 		//
-		float x = beeID.finderPattern.getX() + (beeID.topRight.getX() - beeID.finderPattern.getX()) + (beeID.bottomLeft.getX() - beeID.finderPattern.getX());
-		float y = beeID.finderPattern.getY() + (beeID.topRight.getY() - beeID.finderPattern.getY()) + (beeID.bottomLeft.getY() - beeID.finderPattern.getY());
-		beeID.bottomRight = new Pattern(x, y, beeID.moduleSize);
+		beeID.bottomRight = new Pattern(getBottomRightX(finderPattern, bottomLeft, topRight), getBottomRightY(finderPattern, bottomLeft, topRight), beeID.moduleSize);
 
-		x = beeID.bottomRight.getX() + (finderPattern.getX() - beeID.bottomRight.getX()) / 2;
-		y = beeID.bottomRight.getY() + (finderPattern.getY() - beeID.bottomRight.getY()) / 2;
+		float x = beeID.bottomRight.getX() + (finderPattern.getX() - beeID.bottomRight.getX()) / 2;
+		float y = beeID.bottomRight.getY() + (finderPattern.getY() - beeID.bottomRight.getY()) / 2;
 		beeID.center = new Pattern(x, y, -1);
 
 		//
 		return beeID;
 		
 	}
+	
+	public static float getModuleSize(BigSquare finderPattern, SmallSquare bottomLeft, SmallSquare topRight)
+	{
+		return (BigSquare.MODULE_COUNT * finderPattern.moduleSize + SmallSquare.MODULE_COUNT * bottomLeft.moduleSize + SmallSquare.MODULE_COUNT * topRight.moduleSize) / (BigSquare.MODULE_COUNT + SmallSquare.MODULE_COUNT + SmallSquare.MODULE_COUNT);
+	}
+	
+	// the bottom right corner has no pattern; its position is inferred from
+	// the other three corners
+	public static float getBottomRightX(BigSquare finderPattern, SmallSquare bottomLeft, SmallSquare topRight)
+	{
+		return finderPattern.getX() + (topRight.getX() - finderPattern.getX()) + (bottomLeft.getX() - finderPattern.getX());
+	}
+
+	public static float getBottomRightY(BigSquare finderPattern, SmallSquare bottomLeft, SmallSquare topRight)
+	{
+		return finderPattern.getY() + (topRight.getY() - finderPattern.getY()) + (bottomLeft.getY() - finderPattern.getY());
+	}
 
 	@Override
 	public String toString() 
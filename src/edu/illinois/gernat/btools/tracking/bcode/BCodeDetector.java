@@ -29,20 +29,32 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.text.ParseException;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.imageio.ImageIO;
 
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.FrameGrabber.Exception;
 import org.bytedeco.javacv.Java2DFrameConverter;
 
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.NotFoundException;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
 
 import edu.illinois.gernat.btools.common.image.Images;
+import edu.illinois.gernat.btools.common.io.record.Indexer;
 import edu.illinois.gernat.btools.common.io.record.Record;
 import edu.illinois.gernat.btools.common.io.record.RecordWriter;
 import edu.illinois.gernat.btools.common.parameters.Parameters;
@@ -52,45 +64,103 @@ public class BCodeDetector
 	
 	private static final String THIRD_PARTY_LICENSES_FILE = "bcode_detector_3rd_party_licenses.txt";
 	
-	private static LinkedHashMap<Long, List<MetaCode>> processImage(String inputFilename) throws IOException, ParseException
+	private static final int QUEUED_FILES_PER_THREAD = 2;
+	
+	private static final int QUEUED_FRAMES_PER_THREAD = 2;
+	
+	private static ThreadLocal<Preprocessor> preprocessors;
+
+	private static ThreadLocal<Reader> readers;
+	
+	private static boolean grayscaleDecoding;
+	
+	private static boolean fixedPointPreprocessing;
+	
+	private static boolean writeIndex;
+	
+	private static int trackingInterval;
+
+	private static float trackingSearchRadius;
+	
+	private static ThreadLocal<Reader> exhaustiveReaders; // only set if recall is reported
+	
+	private static final AtomicLong exhaustiveIDCount = new AtomicLong();
+
+	private static final AtomicLong recalledIDCount = new AtomicLong();
+
+	private static final AtomicLong exhaustiveNanos = new AtomicLong();
+	
+	private static final AtomicLong adaptiveNanos = new AtomicLong();
+	
+	private static void processImage(String inputFilename, String outputFilename) throws IOException, ParseException
 	{
 		BufferedImage image = ImageIO.read(new File(inputFilename));
-		List<MetaCode> bCodes = detectBCodesIn(image);
+		List<MetaCode> bCodes = detectBCodesIn(image, null);
 		long timestamp = Images.getTimestampFromFilename(inputFilename);
-		LinkedHashMap<Long, List<MetaCode>> result = new LinkedHashMap<>();
-		result.put(timestamp, bCodes);
-		return result;
+		RecordWriter writer = new RecordWriter(outputFilename, writeIndex);
+		try
+		{
+			writeBCodes(writer, timestamp, bCodes);
+		}
+		finally
+		{
+			writer.close();
+		}
 	}
 
-	private static LinkedHashMap<Long, List<MetaCode>> processVideo(String inputFilename, int frameRate) throws ParseException, IOException
+	private static void processVideo(String inputFilename, String outputFilename, int frameRate, int workerCount) throws ParseException, IOException, InterruptedException
 	{	
 		
 		// check parameters
 		if (frameRate == -1) throw new IllegalStateException();
 		
-		// initialize frame grabber and converter
+		// initialize frame grabber
 		avutil.av_log_set_level(avutil.AV_LOG_QUIET);
 		FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputFilename);
 		grabber.setVideoOption("threads", "1");		
+		if (grayscaleDecoding) grabber.setPixelFormat(avutil.AV_PIX_FMT_GRAY8);
 		grabber.start();
-		Java2DFrameConverter converter = new Java2DFrameConverter();
 		
-		// initialize bCode detection loop
-		LinkedHashMap<Long, List<MetaCode>> result = new LinkedHashMap<>();
+		// detect bCodes in video frames; detections are written as soon as
+		// a frame has been processed so that memory use does not grow with 
+		// video length
+		RecordWriter writer = new RecordWriter(outputFilename, writeIndex);
 		long timestamp = Images.getTimestampFromFilename(inputFilename);
+		try
+		{
+			if (workerCount == 1) processFrames(grabber, writer, timestamp, frameRate);
+			else processFramesInParallel(grabber, writer, timestamp, frameRate, workerCount);
+		}
+		finally
+		{
+			
+			// close output file and dispose of frame grabber
+			writer.close();
+			grabber.stop();
+		    grabber.close();
+			grabber.release();
+			
+		}
+		
+	}
+	
+	private static void processFrames(FFmpegFrameGrabber grabber, RecordWriter writer, long timestamp, int frameRate) throws IOException
+	{
+		
+		// loop over and process video frames; if requested, bCodes found in 
+		// one frame are tracked into the next frame
+		Java2DFrameConverter converter = new Java2DFrameConverter();
+		Tracker tracker = trackingInterval == 1 ? null : new Tracker(readers.get(), trackingInterval, trackingSearchRadius);
 		int frameNumber = 0;
 		Frame frame = grabber.grab();				
-
-		// loop over and process video frames
 		while (frame != null)
 		{
 			
-			// convert frame
-			BufferedImage image = converter.convert(frame);
-			
 			// detect bCodes
-			List<MetaCode> bCodes = detectBCodesIn(image);
-			result.put(timestamp + Math.round(frameNumber * 1000d / frameRate), bCodes);
+			List<MetaCode> bCodes;
+			if (grayscaleDecoding) bCodes = detectBCodesIn(GrayLuminanceSource.createFrom(frame), tracker);
+			else bCodes = detectBCodesIn(converter.convert(frame), tracker);
+			writeBCodes(writer, timestamp + Math.round(frameNumber * 1000d / frameRate), bCodes);
 			
 			// load next frame
 			frame = grabber.grab();
@@ -98,44 +168,184 @@ public class BCodeDetector
 	
 		}
 		
-		// dispose of frame grabber
-		grabber.stop();
-	    grabber.close();
-		grabber.release();
+	}
+
+	private static void processFramesInParallel(FFmpegFrameGrabber grabber, RecordWriter writer, long timestamp, int frameRate, int workerCount) throws IOException, InterruptedException
+	{
 		
-		// done
-		return result;
+		// set up detection workers; the number of frames that are decoded 
+		// but not yet written is bounded, which also bounds the size of the
+		// reorder buffer
+		ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+		ThreadLocal<Java2DFrameConverter> converters = ThreadLocal.withInitial(Java2DFrameConverter::new);
+		Semaphore permits = new Semaphore(workerCount * QUEUED_FRAMES_PER_THREAD);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		
+		// set up a reorder buffer that writes detections in frame order, 
+		// regardless of the order in which workers finish
+		TreeMap<Integer, List<MetaCode>> pending = new TreeMap<>();
+		int[] nextFrameNumber = {0};
+		
+		// decode frames in this thread and hand them to the workers
+		int frameNumber = 0;
+		try
+		{
+			Frame frame = grabber.grab();				
+			while (frame != null)
+			{
+				
+				// wait until there is room for another frame; stop decoding 
+				// if a worker failed
+				permits.acquire();
+				if (failure.get() != null) break;
+				
+				// frame buffers are reused by the grabber, so workers get a 
+				// copy of the frame; gray frames are copied straight into the
+				// luminance array used for binarization
+				Frame copy = grayscaleDecoding ? null : frame.clone();
+				GrayLuminanceSource source = grayscaleDecoding ? GrayLuminanceSource.createFrom(frame) : null;
+				int currentFrameNumber = frameNumber;
+				workers.execute(() ->
+				{
+					try
+					{
+						
+						// detect bCodes
+						List<MetaCode> bCodes;
+						if (grayscaleDecoding) bCodes = detectBCodesIn(source, null);
+						else bCodes = detectBCodesIn(converters.get().convert(copy), null);
+						
+						// write detections of all frames that are now in order
+						synchronized (pending)
+						{
+							pending.put(currentFrameNumber, bCodes);
+							while ((!pending.isEmpty()) && (pending.firstKey() == nextFrameNumber[0]))
+							{
+								writeBCodes(writer, timestamp + Math.round(nextFrameNumber[0] * 1000d / frameRate), pending.pollFirstEntry().getValue());
+								nextFrameNumber[0]++;
+								permits.release();
+							}
+						}
+						
+					}
+					catch (Throwable t)
+					{
+						
+						// the failed frame never reaches the reorder buffer, so 
+						// its permit is released here to wake up the decoder
+						failure.compareAndSet(null, t);
+						permits.release();
+						
+					}
+				});
+				
+				// load next frame
+				frame = grabber.grab();
+				frameNumber++;
+		
+			}
+		}
+		finally
+		{
+			workers.shutdown();
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		
+		// report worker failures
+		Throwable t = failure.get();
+		if (t instanceof Error) throw (Error) t;
+		else if (t instanceof IOException) throw (IOException) t;
+		else if (t != null) throw new IllegalStateException(t);
 		
 	}
 	
-	private static List<MetaCode> detectBCodesIn(BufferedImage image)
+	private static void writeBCodes(RecordWriter writer, long timestamp, List<MetaCode> bCodes) throws IOException
+	{
+		for (MetaCode metaCode : bCodes)
+		{
+			Record record = new Record(timestamp, metaCode.data, metaCode.nw, metaCode.ne, metaCode.sw, metaCode.support, metaCode.errorCorrectionCount);
+			record.roundPatternCoordinates();
+			writer.writeRecord(record);	
+		}
+	}
+	
+	private static List<MetaCode> detectBCodesIn(BufferedImage image, Tracker tracker)
 	{
 
 		// preprocess image
-		image = Preprocessor.preprocess(image);
+		Preprocessor preprocessor = preprocessors.get();
+		LuminanceSource source;
+		if (fixedPointPreprocessing) source = preprocessor.isEnabled() ? preprocessor.preprocess(GrayLuminanceSource.createFrom(image)) : new BufferedImageLuminanceSource(image);
+		else source = new BufferedImageLuminanceSource(preprocessor.preprocess(image));
 		
 		// detect IDs
-		List<MetaCode> metaIDs = Reader.read(image);		
+		List<MetaCode> metaIDs = readBCodes(source, tracker);		
 		
 		// postprocess bCode detections
-		if (Preprocessor.scalingFactor != 1)
-		{
-			for (MetaCode metaID : metaIDs) 
-			{				
-				metaID.center.set(metaID.center.x / Preprocessor.scalingFactor, metaID.center.y / Preprocessor.scalingFactor);
-				metaID.moduleSize /= Preprocessor.scalingFactor;
-				metaID.nw.set(metaID.nw.x / Preprocessor.scalingFactor, metaID.nw.y / Preprocessor.scalingFactor);
-				metaID.ne.set(metaID.ne.x / Preprocessor.scalingFactor, metaID.ne.y / Preprocessor.scalingFactor);
-				metaID.sw.set(metaID.sw.x / Preprocessor.scalingFactor, metaID.sw.y / Preprocessor.scalingFactor);
-				metaID.se.set(metaID.se.x / Preprocessor.scalingFactor, metaID.se.y / Preprocessor.scalingFactor);
-			}
-		}
+		preprocessor.postprocess(metaIDs);
 		
 		// done
 		return metaIDs;
 		
 	}
 
+	private static List<MetaCode> detectBCodesIn(GrayLuminanceSource source, Tracker tracker)
+	{
+		
+		// binarize the gray values directly if they need no preprocessing
+		Preprocessor preprocessor = preprocessors.get();
+		if (!preprocessor.isEnabled()) return readBCodes(source, tracker);
+		
+		// otherwise, images take the BufferedImage path unless they are 
+		// preprocessed in fixed-point arithmetic; the gray image shares its 
+		// pixels with the luminance source
+		if (!fixedPointPreprocessing) return detectBCodesIn(source.toBufferedImage(), tracker);
+		List<MetaCode> metaIDs = readBCodes(preprocessor.preprocess(source), tracker);
+		preprocessor.postprocess(metaIDs);
+		return metaIDs;
+		
+	}
+	
+	private static List<MetaCode> readBCodes(LuminanceSource source, Tracker tracker)
+	{
+		
+		// read bCodes
+		long start = System.nanoTime();
+		List<MetaCode> metaIDs = tracker == null ? readers.get().read(source) : tracker.read(source);
+		if (exhaustiveReaders == null) return metaIDs;
+		adaptiveNanos.addAndGet(System.nanoTime() - start);
+		
+		// compare the decoded IDs to those found by a sweep over all 
+		// thresholds
+		start = System.nanoTime();
+		List<MetaCode> exhaustiveMetaIDs = exhaustiveReaders.get().read(source);
+		exhaustiveNanos.addAndGet(System.nanoTime() - start);
+		HashMap<Integer, Integer> idCounts = new HashMap<>();
+		for (MetaCode metaID : metaIDs) if (metaID.isDecoded) idCounts.merge(metaID.data, 1, Integer::sum);
+		for (MetaCode metaID : exhaustiveMetaIDs) 
+		{
+			if (!metaID.isDecoded) continue;
+			exhaustiveIDCount.incrementAndGet();
+			Integer count = idCounts.get(metaID.data);
+			if ((count == null) || (count == 0)) continue;
+			idCounts.put(metaID.data, count - 1);
+			recalledIDCount.incrementAndGet();
+		}
+		return metaIDs;
+		
+	}
+	
+	private static void showRecallReport()
+	{
+		long exhaustive = exhaustiveIDCount.get();
+		long recalled = recalledIDCount.get();
+		System.out.println("Adaptive threshold schedule recall report:");
+		System.out.println("- decoded bCodes found by exhaustive sweep: " + exhaustive);
+		System.out.println("- decoded bCodes also found by adaptive schedule: " + recalled + (exhaustive == 0 ? "" : String.format(" (%.2f%%)", 100d * recalled / exhaustive)));
+		System.out.println("- detection time of exhaustive sweep: " + exhaustiveNanos.get() / 1000000 + " ms");
+		System.out.println("- detection time of adaptive schedule: " + adaptiveNanos.get() / 1000000 + " ms" + (adaptiveNanos.get() == 0 ? "" : String.format(" (%.2fx speedup)", (double) exhaustiveNanos.get() / adaptiveNanos.get())));
+	}
+
 	private static void showVersionAndCopyright() 
 	{
 		System.out.println("bCode Detector (bTools) 0.18.0");
@@ -151,15 +361,32 @@ public class BCodeDetector
 		System.out.println("Detect bCodes in images or videos.");
 		System.out.println();  		
 		System.out.println("Parameters:");
+		System.out.println("- coarse.step.factor        visit only every n-th intensity threshold at first");
+		System.out.println("                            and refine around thresholds that yield decoded");
+		System.out.println("                            bCodes (default: 1)");
 		System.out.println("- conserve.margin           whether the bCode border is considered to be part");
 		System.out.println("                            of the bCode template");
+		System.out.println("- fixed.point.preprocessing set to \"true\" or 1 to scale and sharpen gray");
+		System.out.println("                            values in fixed-point arithmetic instead of with");
+		System.out.println("                            ImageJ (default: false)");
 		System.out.println("- frame.rate           	    frame rate of any videos to be processed");
+		System.out.println("- grayscale.decoding        set to \"true\" or 1 to decode video frames directly");
+		System.out.println("                            to gray values (default: false)");
+		System.out.println("- recall.report             set to \"true\" or 1 to compare the coarse-to-fine");
+		System.out.println("                            schedule to visiting all intensity thresholds");
+		System.out.println("- refinement.patience       number of refined intensity thresholds in a row");
+		System.out.println("                            without new bCode IDs after which refinement on");
+		System.out.println("                            one side of a coarse threshold stops, and number");
+		System.out.println("                            of coarse thresholds in a row without new bCode");
+		System.out.println("                            IDs after which the whole sweep stops (default: 2)");
 		System.out.println("- scaling.factor            factor for image scaling prior to detecting bCodes");
 		System.out.println("- input.file                the input image, video, or plain text file");
 		System.out.println("- intensity.step.size       increment when going from the lowest to the highest");
 		System.out.println("                            intensity threshold");
 		System.out.println("- max.intensity.threshold   highest intensity threshold for converting to a");
 		System.out.println("                            binary image");
+		System.out.println("- max.module.size           largest expected bCode module size in pixels;");
+		System.out.println("                            required if tile.size is set");
 		System.out.println("- min.intensity.threshold   lowest intensity threshold for converting to a"); 
 		System.out.println("                            binary image");
 		System.out.println("- min.template.conservation fraction of bCode modules that need to match the");
@@ -168,6 +395,25 @@ public class BCodeDetector
 		System.out.println("- sharpening.sigma          Gaussian blur standard deviation for unsharp");		
 		System.out.println("                            masking");		
 		System.out.println("- show.credits              set to \"true\" or 1 to display credits and exit");
+		System.out.println("- threshold.thread.count    number of threads sharing the intensity thresholds,");
+		System.out.println("                            tiles, or fixed-point preprocessing of a single");
+		System.out.println("                            image or frame (default: 1)");
+		System.out.println("- tile.size                 split images larger than this many pixels in");
+		System.out.println("                            either dimension into overlapping tiles (default:");
+		System.out.println("                            0, no tiling)");
+		System.out.println("- thread.count              number of input files to process in parallel");
+		System.out.println("                            (default: 1)");
+		System.out.println("- tracking.interval         search every n-th video frame completely and only");
+		System.out.println("                            search around bCodes found in the previous frame");
+		System.out.println("                            otherwise (default: 1)");
+		System.out.println("- tracking.search.radius    distance in modules a tracked bCode may move");
+		System.out.println("                            between frames (default: 4)");
+		System.out.println("- verify.decoding           set to \"true\" or 1 to check every table-based");
+		System.out.println("                            bCode decoding against the Reed-Solomon decoder");
+		System.out.println("- video.thread.count        number of threads detecting bCodes in the frames");
+		System.out.println("                            of a single video (default: 1)");
+		System.out.println("- write.index               set to \"true\" or 1 to write an index of each");
+		System.out.println("                            output file while writing it (default: false)");
 		System.out.println();
 		System.out.println("Notes:");
 		System.out.println("If the input.file is a plain text file, this file must list one image or");
@@ -197,7 +443,7 @@ public class BCodeDetector
 		System.exit(1);	
 	}
 
-	public static void main(String[] args) throws NotFoundException, IOException, ParseException
+	public static void main(String[] args) throws NotFoundException, IOException, ParseException, InterruptedException
 	{
 		
 		// show version, copyright, and usage information if no arguments were 
@@ -221,15 +467,57 @@ public class BCodeDetector
 			System.exit(1);
 		}
 
-		// set image processing parameters
-		Preprocessor.sharpeningSigma = parameters.getDouble("sharpening.sigma"); 
-		Preprocessor.sharpeningAmount = parameters.getDouble("sharpening.amount");
-		Preprocessor.scalingFactor = (float) parameters.getDouble("scaling.factor");
-		Reader.minBlackThreshold = parameters.getInteger("min.intensity.threshold");
-		Reader.maxBlackThreshold = parameters.getInteger("max.intensity.threshold");
-		Reader.thresholdStepSize = parameters.getInteger("intensity.step.size");
-		Detector.minTemplateConservation = parameters.getDouble("min.template.conservation");
-		Detector.checkMargin = parameters.getBoolean("conserve.margin");
+		// set image processing parameters; each worker thread gets its own
+		// preprocessor and reader
+		double sharpeningSigma = parameters.getDouble("sharpening.sigma"); 
+		double sharpeningAmount = parameters.getDouble("sharpening.amount");
+		float scalingFactor = (float) parameters.getDouble("scaling.factor");
+		int minBlackThreshold = parameters.getInteger("min.intensity.threshold");
+		int maxBlackThreshold = parameters.getInteger("max.intensity.threshold");
+		int thresholdStepSize = parameters.getInteger("intensity.step.size");
+		double minTemplateConservation = parameters.getDouble("min.template.conservation");
+		boolean checkMargin = parameters.getBoolean("conserve.margin");
+		boolean verifyDecoding = parameters.exists("verify.decoding") ? parameters.getBoolean("verify.decoding") : false;
+		int thresholdThreadCount = parameters.exists("threshold.thread.count") ? parameters.getInteger("threshold.thread.count") : 1;
+		if (thresholdThreadCount < 1) throw new IllegalStateException("bCode detector: threshold.thread.count must be at least 1");
+		ForkJoinPool thresholdPool = thresholdThreadCount == 1 ? null : new ForkJoinPool(thresholdThreadCount);
+		fixedPointPreprocessing = parameters.exists("fixed.point.preprocessing") ? parameters.getBoolean("fixed.point.preprocessing") : false;
+		preprocessors = ThreadLocal.withInitial(() -> new Preprocessor(sharpeningSigma, sharpeningAmount, scalingFactor, thresholdPool));
+		
+		// set threshold schedule; by default, all thresholds are visited
+		int coarseStepFactor = parameters.exists("coarse.step.factor") ? parameters.getInteger("coarse.step.factor") : 1;
+		if (coarseStepFactor < 1) throw new IllegalStateException("bCode detector: coarse.step.factor must be at least 1");
+		int refinementPatience = parameters.exists("refinement.patience") ? parameters.getInteger("refinement.patience") : Reader.DEFAULT_REFINEMENT_PATIENCE;
+		if (refinementPatience < 1) throw new IllegalStateException("bCode detector: refinement.patience must be at least 1");
+		
+		// set tiling of large images; by default, images are not tiled
+		int tileSize = parameters.exists("tile.size") ? parameters.getInteger("tile.size") : 0;
+		if (tileSize < 0) throw new IllegalStateException("bCode detector: tile.size must not be negative");
+		float maxModuleSize = tileSize == 0 ? 0 : (float) parameters.getDouble("max.module.size");
+		if ((tileSize > 0) && (maxModuleSize <= 0)) throw new IllegalStateException("bCode detector: max.module.size must be positive");
+		readers = ThreadLocal.withInitial(() -> new Reader(new Detector(minTemplateConservation, checkMargin, verifyDecoding), minBlackThreshold, maxBlackThreshold, thresholdStepSize, thresholdPool, coarseStepFactor, refinementPatience, tileSize, maxModuleSize));
+		boolean reportRecall = parameters.exists("recall.report") ? parameters.getBoolean("recall.report") : false;
+		if (reportRecall) exhaustiveReaders = ThreadLocal.withInitial(() -> new Reader(new Detector(minTemplateConservation, checkMargin, verifyDecoding), minBlackThreshold, maxBlackThreshold, thresholdStepSize, thresholdPool));
+		
+		// set number of input files to process in parallel
+		int threadCount = parameters.exists("thread.count") ? parameters.getInteger("thread.count") : 1;
+		if (threadCount < 1) throw new IllegalStateException("bCode detector: thread.count must be at least 1");
+		int videoThreadCount = parameters.exists("video.thread.count") ? parameters.getInteger("video.thread.count") : 1;
+		if (videoThreadCount < 1) throw new IllegalStateException("bCode detector: video.thread.count must be at least 1");
+		
+		// set tracking of bCodes between video frames; by default, each frame 
+		// is searched completely
+		trackingInterval = parameters.exists("tracking.interval") ? parameters.getInteger("tracking.interval") : 1;
+		if (trackingInterval < 1) throw new IllegalStateException("bCode detector: tracking.interval must be at least 1");
+		if ((trackingInterval > 1) && (videoThreadCount > 1)) throw new IllegalStateException("bCode detector: tracking.interval cannot be combined with video.thread.count");
+		trackingSearchRadius = parameters.exists("tracking.search.radius") ? (float) parameters.getDouble("tracking.search.radius") : Tracker.DEFAULT_SEARCH_RADIUS;
+		if (trackingSearchRadius < 0) throw new IllegalStateException("bCode detector: tracking.search.radius must not be negative");
+		
+		// set whether video frames are decoded to gray values instead of color
+		grayscaleDecoding = parameters.exists("grayscale.decoding") ? parameters.getBoolean("grayscale.decoding") : false;
+		
+		// set whether output files are indexed as they are written
+		writeIndex = parameters.exists("write.index") ? parameters.getBoolean("write.index") : false;
 		
 		// map input files to output files
 		HashMap<String, String> ioMap = mapInputToOutput(parameters.getString("input.file"));
@@ -246,48 +534,76 @@ public class BCodeDetector
 		}
 		
 		// process each input file
-		processInputFiles(ioMap, frameRate);
+		processInputFiles(ioMap, frameRate, threadCount, videoThreadCount);
+		if (thresholdPool != null) thresholdPool.shutdown();
+		if (reportRecall) showRecallReport();
 		
 	}
 
-	private static void processInputFiles(HashMap<String, String> ioMap, int frameRate) throws IOException, ParseException
+	private static void processInputFiles(HashMap<String, String> ioMap, int frameRate, int threadCount, int videoThreadCount) throws InterruptedException
 	{
-		for (String inputFilename : ioMap.keySet())
+		
+		// process input files one after another in this thread if only one
+		// thread was requested
+		if (threadCount == 1)
+		{
+			for (String inputFilename : ioMap.keySet()) processInputFile(inputFilename, ioMap.get(inputFilename), frameRate, videoThreadCount);
+			return;
+		}
+		
+		// otherwise, hand input files to a pool of worker threads; block 
+		// instead of queuing more files once the queue is full 
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threadCount * QUEUED_FILES_PER_THREAD), (task, pool) -> 
 		{
-
-			// delete output file, if it exists
-			String outputFilename = ioMap.get(inputFilename);
-			File outputFile = new File(outputFilename);
-			if (outputFile.exists()) outputFile.delete();
-
-			// detect bCodes in input file
-			LinkedHashMap<Long, List<MetaCode>> bCodeDetectionResults = null;
 			try
 			{
-				if (inputFilename.endsWith(".jpg") || inputFilename.endsWith(".png")) bCodeDetectionResults = processImage(inputFilename);
-				else if (inputFilename.endsWith(".h264") || inputFilename.endsWith(".mp4") || inputFilename.endsWith(".mjpeg")) bCodeDetectionResults = processVideo(inputFilename, frameRate);
+				pool.getQueue().put(task);
 			}
-			catch (Exception e)
+			catch (InterruptedException e)
 			{
-				e.printStackTrace();
-				System.err.println("Caused by file: " + inputFilename);
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(e);
 			}
+		});
+		for (String inputFilename : ioMap.keySet())
+		{
+			String outputFilename = ioMap.get(inputFilename);
+			executor.execute(() -> processInputFile(inputFilename, outputFilename, frameRate, videoThreadCount));
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		
+	}
+
+	private static void processInputFile(String inputFilename, String outputFilename, int frameRate, int videoThreadCount)
+	{
+		
+		// delete output file, if it exists
+		File outputFile = new File(outputFilename);
+		if (outputFile.exists()) outputFile.delete();
+
+		// detect bCodes in input file and write them to the output file; a
+		// file that cannot be processed does not affect any other file 
+		try
+		{
+			if (inputFilename.endsWith(".jpg") || inputFilename.endsWith(".png")) processImage(inputFilename, outputFilename);
+			else if (inputFilename.endsWith(".h264") || inputFilename.endsWith(".mp4") || inputFilename.endsWith(".mjpeg")) processVideo(inputFilename, outputFilename, frameRate, videoThreadCount);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			System.err.println("Caused by file: " + inputFilename);
 			
-			// write bCode detections to file 
-			RecordWriter writer = new RecordWriter(outputFilename);
-			for (Long timestamp : bCodeDetectionResults.keySet())
+			// an image yields all of its records at once, so a truncated 
+			// output file and index are of no use
+			if (inputFilename.endsWith(".jpg") || inputFilename.endsWith(".png")) 
 			{
-				List<MetaCode> bCodes = bCodeDetectionResults.get(timestamp);
-				for (MetaCode metaCode : bCodes)
-				{
-					Record record = new Record(timestamp, metaCode.data, metaCode.nw, metaCode.ne, metaCode.sw, metaCode.support, metaCode.errorCorrectionCount);
-					record.roundPatternCoordinates();
-					writer.writeRecord(record);	
-				}
+				outputFile.delete();
+				if (writeIndex) new File(Indexer.getIndexFilenameFor(outputFilename)).delete();
 			}
-			writer.close();
-
-		}		
+			
+		}
+		
 	}
 
 	private static HashMap<String, String> mapInputToOutput(String inputFilename) throws IOException
@@ -50,8 +50,9 @@ import com.google.zxing.common.BitMatrix;
 // - finds all pattern in an image, not just one
 // - does not skip over pixel rows to improve likelihood of finding visually 
 //   small bCodes
-// - uses an index to speed up pattern detection when image is analyzed at 
-//   multiple thresholds
+// - scans the black runs kept by the index instead of individual pixels to
+//   speed up pattern detection when image is analyzed at multiple 
+//   thresholds
 // - allows for more variation in module size to increase likelihood of 
 //   detecting visually small bCodes
 // - does not require that a pattern be detected multiple times
@@ -64,22 +65,38 @@ public class BigSquareFinder
 
 	private static final int INTEGER_MATH_SHIFT = 8;
 
-	private final BitMatrix image;
+	private BitMatrix image;
 	
 	private final ArrayList<BigSquare> possibleCenters;
 	
+	private final int[] stateCount;
+	
 	private final int[] crossCheckStateCount;
 	
 	private Index index;
 	
 	private float lastModuleSizeEstimate; // FIXME dirty hack
 
-	public BigSquareFinder(BitMatrix image, Index index) 
+	public BigSquareFinder() 
 	{
-		this.image = image;
 		this.possibleCenters = new ArrayList<>();
+		this.stateCount = new int[5];
 		this.crossCheckStateCount = new int[5];
+	}
+
+	public BigSquareFinder(BitMatrix image, Index index) 
+	{
+		this();
+		reset(image, index);
+	}
+
+	// prepares this finder for another image, so that it can be reused 
+	// without allocating new buffers
+	public void reset(BitMatrix image, Index index)
+	{
+		this.image = image;
 		this.index = index;
+		possibleCenters.clear();
 	}
 
 	public ArrayList<BigSquare> getPossibleCenters() 
@@ -90,67 +107,70 @@ public class BigSquareFinder
 	public void find() 
 	{
 		int maxI = Math.min(image.getHeight(), index.getBottom());
-		int[] stateCount = new int[5];
+		int[] stateCount = this.stateCount;
 		for (int i = Math.max(0, index.getTop()); i < maxI; i++) 
 		{
+			int runCount = index.getRunCount(i);
+			if (runCount == 0) continue;
+			int[] runs = index.getRuns(i);
 			stateCount[0] = 0;
 			stateCount[1] = 0;
 			stateCount[2] = 0;
 			stateCount[3] = 0;
 			stateCount[4] = 0;
 			int currentState = 0;
-			int maxJ = Math.min(image.getWidth(), index.getRight(i) + 1);
-			for (int j = Math.max(0, index.getLeft(i) - 1); j < maxJ; j++) 
+			
+			// the row is scanned from the white pixel left of its first black
+			// run up to its last black run
+			if (runs[0] > 0) currentState = processWhiteRun(stateCount, currentState, i, runs[0] - 1, 1);
+			for (int r = 0; r < runCount; r++)
 			{
-				if (image.get(j, i)) 
-				{
-					if ((currentState & 1) == 1) currentState++;
-					stateCount[currentState]++;
-				}
-				else 
-				{
-					if ((currentState & 1) == 0) 
-					{
-						if (currentState == 4) 
-						{ 
-							if (foundPatternCross(stateCount)) 
-							{
-								boolean confirmed = handlePossibleCenter(stateCount, i, j);
-								if (!confirmed) 
-								{
-									stateCount[0] = stateCount[2];
-									stateCount[1] = stateCount[3];
-									stateCount[2] = stateCount[4];
-									stateCount[3] = 1;
-									stateCount[4] = 0;
-									currentState = 3;
-									continue;
-								}
-								currentState = 0;
-								stateCount[0] = 0;
-								stateCount[1] = 0;
-								stateCount[2] = 0;
-								stateCount[3] = 0;
-								stateCount[4] = 0;
-							} 
-							else 
-							{ 
-								stateCount[0] = stateCount[2];
-								stateCount[1] = stateCount[3];
-								stateCount[2] = stateCount[4];
-								stateCount[3] = 1;
-								stateCount[4] = 0;
-								currentState = 3;
-							}
-						} 
-						else stateCount[++currentState]++;
-					} 
-					else stateCount[currentState]++; 
-				}
-			} 
-			if (foundPatternCross(stateCount)) handlePossibleCenter(stateCount, i, maxJ);
+				currentState = processBlackRun(stateCount, currentState, runs[2 * r + 1] - runs[2 * r]);
+				if (r + 1 < runCount) currentState = processWhiteRun(stateCount, currentState, i, runs[2 * r + 1], runs[2 * r + 2] - runs[2 * r + 1]);
+			}
+			if (foundPatternCross(stateCount)) handlePossibleCenter(stateCount, i, runs[2 * runCount - 1]);
 		} 
 	}
+	
+	private static int processBlackRun(int[] stateCount, int currentState, int length)
+	{
+		if ((currentState & 1) == 1) currentState++;
+		stateCount[currentState] += length;
+		return currentState;
+	}
+
+	// processes a run of white pixels the same way as scanning it pixel by 
+	// pixel would; only the first pixel of the run can complete a pattern
+	private int processWhiteRun(int[] stateCount, int currentState, int i, int j, int length)
+	{
+		if ((currentState & 1) == 1) 
+		{
+			stateCount[currentState] += length;
+			return currentState;
+		}
+		if (currentState != 4) 
+		{
+			stateCount[++currentState] += length;
+			return currentState;
+		}
+		if ((foundPatternCross(stateCount)) && (handlePossibleCenter(stateCount, i, j))) 
+		{
+			stateCount[0] = 0;
+			stateCount[1] = 0;
+			stateCount[2] = 0;
+			stateCount[3] = 0;
+			stateCount[4] = 0;
+			if (length == 1) return 0;
+			stateCount[1] = length - 1;
+			return 1;
+		}
+		stateCount[0] = stateCount[2];
+		stateCount[1] = stateCount[3];
+		stateCount[2] = stateCount[4];
+		stateCount[3] = length;
+		stateCount[4] = 0;
+		return 3;
+	}
 
 	private static float centerFromEnd(int[] stateCount, int end) 
 	{
@@ -243,47 +263,37 @@ public class BigSquareFinder
 		int maxJ = image.getWidth();
 		int[] stateCount = getCrossCheckStateCount();
 
+		// measure the runs to the left and right of the center with word
+		// operations; runs are only measured up to the length at which they
+		// would make the cross check fail
 		int j = startJ;
-		while (j >= 0 && image.get(j, centerI)) 
-		{
-			stateCount[2]++;
-			j--;
-		}
+		int run = RowScanner.getRunLengthLeft(image, centerI, j, true);
+		stateCount[2] += run;
+		j -= run;
 		if (j < 0) return Float.NaN;
-		while (j >= 0 && !image.get(j, centerI) && stateCount[1] <= maxCount) 
-		{
-			stateCount[1]++;
-			j--;
-		}
+		run = Math.min(RowScanner.getRunLengthLeft(image, centerI, j, false), maxCount + 1);
+		stateCount[1] += run;
+		j -= run;
 		if (j < 0 || stateCount[1] > maxCount) 
 		{
 			return Float.NaN;
 		}
-		while (j >= 0 && image.get(j, centerI) && stateCount[0] <= maxCount) 
-		{
-			stateCount[0]++;
-			j--;
-		}
+		run = Math.min(RowScanner.getRunLengthLeft(image, centerI, j, true), maxCount + 1);
+		stateCount[0] += run;
 		if (stateCount[0] > maxCount) return Float.NaN;
 
 		j = startJ + 1;
-		while (j < maxJ && image.get(j, centerI)) 
-		{
-			stateCount[2]++;
-			j++;
-		}
+		run = RowScanner.getRunLengthRight(image, centerI, j, maxJ, true);
+		stateCount[2] += run;
+		j += run;
 		if (j == maxJ) return Float.NaN;
-		while (j < maxJ && !image.get(j, centerI) && stateCount[3] < maxCount) 
-		{
-			stateCount[3]++;
-			j++;
-		}
+		run = Math.min(RowScanner.getRunLengthRight(image, centerI, j, maxJ, false), maxCount);
+		stateCount[3] += run;
+		j += run;
 		if (j == maxJ || stateCount[3] >= maxCount) return Float.NaN;
-		while (j < maxJ && image.get(j, centerI) && stateCount[4] < maxCount) 
-		{
-			stateCount[4]++;
-			j++;
-		}
+		run = Math.min(RowScanner.getRunLengthRight(image, centerI, j, maxJ, true), maxCount);
+		stateCount[4] += run;
+		j += run;
 		if (stateCount[4] >= maxCount) return Float.NaN;
 
 		int stateCountTotal = stateCount[0] + stateCount[1] + stateCount[2] + stateCount[3] + stateCount[4];
@@ -27,10 +27,14 @@ import com.google.zxing.common.BitMatrix;
  * @since 0.12.0
  * @author Tim Gernat
  */
+// Binarizes an image at a sequence of thresholds. Pixels are sorted by 
+// intensity once per image, so that changing the threshold only visits the 
+// pixels that change color. The black runs of each affected row are updated 
+// from these pixels instead of rescanning the row.
 public class Binarizer 
 {
 
-	private byte[] luminances;
+	private static final int INTENSITY_COUNT = SortedPixels.INTENSITY_COUNT;
 	
 	private int width;
 	
@@ -42,15 +46,35 @@ public class Binarizer
 	
 	private int threshold;
 	
+	private SortedPixels pixels;
+	
+	private int[] cursors; // next pixel of each intensity in pixels
+	
+	private int[] heap; // intensities ordered by the offset of their next pixel
+	
+	private int heapSize;
+	
+	private int[] runBuffer;
+	
 	public Binarizer(LuminanceSource source)
 	{
-		luminances = source.getMatrix();
-		width = source.getWidth();
-		height = source.getHeight();
+		this(new SortedPixels(source));
+	}
+	
+	public Binarizer(SortedPixels pixels)
+	{
+		this.pixels = pixels;
+		width = pixels.getWidth();
+		height = pixels.getHeight();
 		matrix = new BitMatrix(width, height);
 		matrix.setRegion(0, 0, width, height);
 		index = new Index(width, height);
 		threshold = Integer.MAX_VALUE;
+		cursors = new int[INTENSITY_COUNT];
+		heap = new int[INTENSITY_COUNT];
+		
+		// a row never has more runs than pixels
+		runBuffer = new int[2 * width + 2];
 	}
 	
 	public BitMatrix getMatrix()
@@ -65,55 +89,176 @@ public class Binarizer
 	
 	public void binarize(int threshold)
 	{
-		if (this.threshold < threshold) throw new IllegalStateException();
-		int t = -1;
-		int b = -1;
+		
+		// pixels with an intensity between the old and the new threshold 
+		// change color; lowering the threshold turns them white, raising it 
+		// turns them black
+		int oldIntensity = Math.max(0, Math.min(this.threshold, INTENSITY_COUNT));
+		int newIntensity = Math.max(0, Math.min(threshold, INTENSITY_COUNT));
+		if (newIntensity < oldIntensity) clearPixels(newIntensity, oldIntensity);
+		else if (newIntensity > oldIntensity) setPixels(oldIntensity, newIntensity);
+		this.threshold = threshold;
+		
+	}
+	
+	// turns the pixels with an intensity in [from, to) white
+	private void clearPixels(int from, int to)
+	{
+		
+		// clear pixels and update runs of each row that contains any of them
+		int pixel = startPixels(from, to);
+		while (pixel != -1)
+		{
+			int y = pixel / width;
+			int rowEnd = (y + 1) * width;
+			int offset = y * width;
+			int[] runs = index.getRuns(y);
+			int runCount = index.getRunCount(y);
+			int newRunCount = 0;
+			for (int r = 0; r < runCount; r++)
+			{
+				int runStart = runs[2 * r];
+				int runEnd = runs[2 * r + 1];
+				while ((pixel != -1) && (pixel < rowEnd) && (pixel - offset < runEnd))
+				{
+					int x = pixel - offset;
+					matrix.bits[y * matrix.rowSize + (x >> 5)] &= ~(1 << (x & 0x1f));
+					if (x > runStart) 
+					{
+						runBuffer[2 * newRunCount] = runStart;
+						runBuffer[2 * newRunCount + 1] = x;
+						newRunCount++;
+					}
+					runStart = x + 1;
+					pixel = nextPixel();
+				}
+				if (runStart < runEnd)
+				{
+					runBuffer[2 * newRunCount] = runStart;
+					runBuffer[2 * newRunCount + 1] = runEnd;
+					newRunCount++;					
+				}
+			}
+			index.setRuns(y, runBuffer, newRunCount);
+		}
+		
+		// update the rows that contain black pixels
+		int top = index.getTop();
 		int bottom = index.getBottom();
-	    for (int y = index.getTop(); y <= bottom; y++) 
-	    {	    	
-	    	int l = -1;
-	    	int r = -1;
-	    	int right = index.getRight(y);
-	    	int offset = y * width;	    	
-	    	for (int x = index.getLeft(y); x <= right; x++) 
-    		{
-	    		if ((luminances[offset + x] & 0xff) < threshold) 
-    			{
-	    			if (l == -1) l = x;
-	    			r = x;
-    			}
-	    		else 
-    			{
-//	    			if (matrix.get(x, y)) matrix.flip(x, y);
-	    		    int index = y * matrix.rowSize + (x >> 5);	    		    
-	    		    if (((matrix.bits[index] >>> (x & 0x1f)) & 1) != 0) matrix.bits[index] &= ~(1 << (x & 0x1f));
-    			}
-    		}
-	    	if ((l == -1) && (b == -1))
-	    	{
-		    	index.setLeft(y, 1);
-		    	index.setRight(y, 0);
-	    	}
-	    	else
-	    	{
-		    	index.setLeft(y, l);
-		    	index.setRight(y, r);
-    			if (t == -1) t = y;
-    			b = y;	    		
+		while ((top <= bottom) && (index.getRunCount(top) == 0)) top++;
+		while ((bottom >= top) && (index.getRunCount(bottom) == 0)) bottom--;
+		if (top > bottom)
+		{
+			index.setTop(1);
+			index.setBottom(0);
+		}
+		else
+		{
+			index.setTop(top);
+			index.setBottom(bottom);
+		}
+		
+	}
+	
+	// turns the pixels with an intensity in [from, to) black
+	private void setPixels(int from, int to)
+	{
+		
+		// set pixels and merge them into the runs of their row; a pixel that 
+		// starts where the previous run ends extends that run
+		int top = Integer.MAX_VALUE;
+		int bottom = -1;
+		int pixel = startPixels(from, to);
+		while (pixel != -1)
+		{
+			int y = pixel / width;
+			int rowEnd = (y + 1) * width;
+			int offset = y * width;
+			int[] runs = index.getRuns(y);
+			int runCount = index.getRunCount(y);
+			int newRunCount = 0;
+			int r = 0;
+			while ((r < runCount) || ((pixel != -1) && (pixel < rowEnd)))
+			{
+				int runStart;
+				int runEnd;
+				if ((r < runCount) && ((pixel == -1) || (pixel >= rowEnd) || (runs[2 * r] < pixel - offset)))
+				{
+					runStart = runs[2 * r];
+					runEnd = runs[2 * r + 1];
+					r++;
+				}
+				else
+				{
+					runStart = pixel - offset;
+					runEnd = runStart + 1;
+					matrix.bits[y * matrix.rowSize + (runStart >> 5)] |= 1 << (runStart & 0x1f);
+					pixel = nextPixel();
+				}
+				if ((newRunCount > 0) && (runBuffer[2 * newRunCount - 1] == runStart)) runBuffer[2 * newRunCount - 1] = runEnd;
+				else
+				{
+					runBuffer[2 * newRunCount] = runStart;
+					runBuffer[2 * newRunCount + 1] = runEnd;
+					newRunCount++;
+				}
+			}
+			index.setRuns(y, runBuffer, newRunCount);
+			top = Math.min(top, y);
+			bottom = Math.max(bottom, y);
+		}
+		
+		// update the rows that contain black pixels
+		if (bottom == -1) return;
+		if (index.getTop() <= index.getBottom())
+		{
+			top = Math.min(top, index.getTop());
+			bottom = Math.max(bottom, index.getBottom());
+		}
+		index.setTop(top);
+		index.setBottom(bottom);
+		
+	}
+	
+	// merges the pixels with an intensity in [from, to) by offset, which 
+	// groups them by row and, within a row, by column, and returns the offset
+	// of the first one, or -1 if there is none
+	private int startPixels(int from, int to)
+	{
+		heapSize = 0;
+		for (int intensity = from; intensity < to; intensity++)
+		{
+			cursors[intensity] = pixels.getIntensityStart(intensity);
+			if (cursors[intensity] < pixels.getIntensityStart(intensity + 1)) heap[heapSize++] = intensity;
+		}
+		for (int k = heapSize / 2 - 1; k >= 0; k--) siftDown(k);
+		return nextPixel();
+	}
 
-	    	}
-	    }
-	    if ((t == -1) && (b == -1)) 
-    	{
-	    	index.setTop(1);
-	    	index.setBottom(0);
-    	}
-	    else 
-	    {
-	    	index.setTop(t);
-	    	index.setBottom(b);
-	    }
-		this.threshold = threshold;
+	// returns the offset of the next pixel in the heap, or -1 if there is none
+	private int nextPixel()
+	{
+		if (heapSize == 0) return -1;
+		int intensity = heap[0];
+		int pixel = pixels.getOffset(cursors[intensity]++);
+		if (cursors[intensity] == pixels.getIntensityStart(intensity + 1)) heap[0] = heap[--heapSize];
+		if (heapSize > 0) siftDown(0);
+		return pixel;
+	}
+	
+	private void siftDown(int k)
+	{
+		int intensity = heap[k];
+		int key = pixels.getOffset(cursors[intensity]);
+		while (2 * k + 1 < heapSize)
+		{
+			int child = 2 * k + 1;
+			if ((child + 1 < heapSize) && (pixels.getOffset(cursors[heap[child + 1]]) < pixels.getOffset(cursors[heap[child]]))) child++;
+			if (pixels.getOffset(cursors[heap[child]]) >= key) break;
+			heap[k] = heap[child];
+			k = child;
+		}
+		heap[k] = intensity;
 	}
 
 }
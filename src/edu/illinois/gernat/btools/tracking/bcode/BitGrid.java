@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.tracking.bcode;
+
+import com.google.zxing.common.BitMatrix;
+
+// Packs a sampled bCode grid into longs, so that modules can be compared
+// with masks and bit counts instead of one BitMatrix.get call per module.
+// Each long holds ROWS_PER_WORD rows of SIZE bits; module (x, y) is bit
+// (y % ROWS_PER_WORD) * SIZE + x of long y / ROWS_PER_WORD.
+public final class BitGrid
+{
+
+	public static final int SIZE = BCode.DIMENSION + BCode.MARGIN * 2;
+
+	public static final int ROWS_PER_WORD = Long.SIZE / SIZE;
+
+	public static final int WORD_COUNT = (SIZE + ROWS_PER_WORD - 1) / ROWS_PER_WORD;
+
+	private static final int ROW_MASK = (1 << SIZE) - 1;
+
+	private BitGrid()
+	{
+	}
+
+	// packs a SIZE x SIZE matrix into the given array, which is returned
+	public static long[] pack(BitMatrix matrix, long[] grid)
+	{
+		if ((matrix.getWidth() != SIZE) || (matrix.getHeight() != SIZE)) throw new IllegalArgumentException();
+		for (int i = 0; i < WORD_COUNT; i++) grid[i] = 0;
+		for (int y = 0; y < SIZE; y++) grid[y / ROWS_PER_WORD] |= (long) (matrix.bits[y * matrix.rowSize] & ROW_MASK) << ((y % ROWS_PER_WORD) * SIZE);
+		return grid;
+	}
+
+	public static long[] createMask(int[][] xy)
+	{
+		long[] mask = new long[WORD_COUNT];
+		for (int[] module : xy) mask[module[1] / ROWS_PER_WORD] |= 1L << ((module[1] % ROWS_PER_WORD) * SIZE + module[0]);
+		return mask;
+	}
+
+	public static int getRow(long[] grid, int y)
+	{
+		return (int) (grid[y / ROWS_PER_WORD] >>> ((y % ROWS_PER_WORD) * SIZE)) & ROW_MASK;
+	}
+
+	// counts the modules under the mask that differ between the two grids
+	public static int countMismatches(long[] grid, long[] template, long[] mask)
+	{
+		int mismatches = 0;
+		for (int i = 0; i < WORD_COUNT; i++) mismatches += Long.bitCount((grid[i] ^ template[i]) & mask[i]);
+		return mismatches;
+	}
+
+}
@@ -20,11 +20,13 @@
 package edu.illinois.gernat.btools.tracking.bcode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
 import edu.illinois.gernat.btools.common.geometry.Coordinate;
+import edu.illinois.gernat.btools.common.geometry.Grid;
 
 /**
  * @version 0.12.0
@@ -81,34 +83,63 @@ public class Consolidator
 		}
 		float minCenterDistance = sum / count * (float) BCode.DIMENSION / 2;
 		
-		//
-		LinkedList<MetaCode> neighbors = new LinkedList<MetaCode>();
-		int idCount = metaIDs.size();		
+		// merge each meta ID that has not been merged into another one with
+		// all later meta IDs whose centers lie within minCenterDistance in x
+		// and y; neighbors are looked up in a uniform grid whose cells are at 
+		// least minCenterDistance wide, so they are in adjacent cells
+		int idCount = metaIDs.size();
+		float[] xs = new float[idCount];
+		float[] ys = new float[idCount];
+		for (int i = 0; i < idCount; i++)
+		{
+			xs[i] = metaIDs.get(i).center.x;
+			ys[i] = metaIDs.get(i).center.y;
+		}
+		Grid grid = new Grid(xs, ys, minCenterDistance);
+		boolean[] isMerged = new boolean[idCount];
+		int[] neighbors = new int[idCount];
+		List<MetaCode> consolidatedIDs = new ArrayList<MetaCode>();
 		for (int index1 = 0; index1 < idCount; index1++)
 		{
-					
-			//
+			
+			// skip meta IDs that were merged into an earlier one 
+			if (isMerged[index1]) continue;
 			MetaCode id1 = metaIDs.get(index1);
-			neighbors.clear();
-			for (int index2 = index1 + 1; index2 < idCount; index2++)
+			consolidatedIDs.add(id1);
+			
+			// find neighbors
+			int neighborCount = 0;
+			int column = grid.getColumn(xs[index1]);
+			int row = grid.getRow(ys[index1]);
+			for (int r = Math.max(0, row - 1); r <= Math.min(grid.rowCount - 1, row + 1); r++)
 			{
-				MetaCode id2 = metaIDs.get(index2);
-				//TODO add norm method to coordinate and replace this with call to norm
-				if ((Math.abs(id1.center.x - id2.center.x) <= minCenterDistance) && (Math.abs(id1.center.y - id2.center.y) <= minCenterDistance)) neighbors.add(id2);
+				for (int c = Math.max(0, column - 1); c <= Math.min(grid.columnCount - 1, column + 1); c++)
+				{
+					int cell = r * grid.columnCount + c;
+					for (int i = grid.cellStarts[cell]; i < grid.cellStarts[cell + 1]; i++)
+					{
+						int index2 = grid.cellItems[i];
+						if ((index2 <= index1) || (isMerged[index2])) continue;
+						if ((Math.abs(xs[index1] - xs[index2]) <= minCenterDistance) && (Math.abs(ys[index1] - ys[index2]) <= minCenterDistance)) neighbors[neighborCount++] = index2;
+					}
+				}
 			}
 			
-			//
-			if (neighbors.size() == 0) continue;
+			// merge neighbors in list order
+			if (neighborCount == 0) continue;
+			Arrays.sort(neighbors, 0, neighborCount);
 			LinkedList<BCode> neighboringBeeIDs = new LinkedList<BCode>();
-			for (MetaCode neighbor : neighbors) neighboringBeeIDs.addAll(neighbor.beeIDs); 
+			for (int i = 0; i < neighborCount; i++)
+			{
+				neighboringBeeIDs.addAll(metaIDs.get(neighbors[i]).beeIDs);
+				isMerged[neighbors[i]] = true;
+			}
 			id1.add(neighboringBeeIDs);
-			metaIDs.removeAll(neighbors);
-			idCount -= neighbors.size();
 			
 		}
 
 		//
-		return metaIDs;
+		return consolidatedIDs;
 		
 	}
 		
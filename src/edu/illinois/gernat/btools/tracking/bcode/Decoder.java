@@ -24,6 +24,7 @@ import java.util.Arrays;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.common.reedsolomon.GenericGF;
 import com.google.zxing.common.reedsolomon.ReedSolomonDecoder;
+import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
 import com.google.zxing.common.reedsolomon.ReedSolomonException;
 
 /**
@@ -37,7 +38,144 @@ public final class Decoder
 	public static final int FIELD_ID = 0;
 	
 	public static final int FIELD_ERROR_CORRECTION_FLAG = 1;
+	
+	public static final int NOT_DECODABLE = -1;
+	
+	private static final int DATA_BIT_COUNT = (BCode.DATA_BYTES + BCode.ERROR_CORRECTION_BYTES) * BCode.BLOCK_SIZE - BCode.MASKED_BIT_COUNT;
+	
+	private static final int TABLE_SIZE_BITS = 22;
+	
+	private static final int EMPTY = -1;
+	
+	private static final int[][] rowTables; // data bits of each possible row
+	
+	private static final int[] keys;
+
+	private static final short[] values;
+
+	private static final int FIELD_PRIMITIVE = 0x011D; // of GenericGF.QR_CODE_FIELD_256
+	
+	// the lookup table maps each data word that the Reed-Solomon decoder
+	// accepts to its ID and error correction flag. the decoder corrects all 
+	// words that differ from the code word of an ID in one byte, without 
+	// changing the masked bits of the first byte. it also accepts any word 
+	// whose second syndrome is zero without changing it, because the error
+	// magnitude it then computes is zero; these words include the code words.
+	// the table uses open addressing with linear probing
+	static
+	{
 		
+		// map each possible row of the sampled grid to the data bits it 
+		// contains, placed where they belong in the packed data word
+		rowTables = new int[BitGrid.SIZE][];
+		for (int i = 0; i < DATA_BIT_COUNT; i++)
+		{
+			int x = BCode.DATA_XY[i][0];
+			int y = BCode.DATA_XY[i][1];
+			if (rowTables[y] == null) rowTables[y] = new int[1 << BitGrid.SIZE];
+			for (int row = 0; row < rowTables[y].length; row++) if (((row >>> x) & 1) == 1) rowTables[y][row] |= 1 << (DATA_BIT_COUNT - 1 - i);
+		}
+		
+		// build lookup table
+		keys = new int[1 << TABLE_SIZE_BITS];
+		values = new short[1 << TABLE_SIZE_BITS];
+		Arrays.fill(keys, EMPTY);
+		ReedSolomonEncoder encoder = new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256);
+		int[] bytes = new int[BCode.DATA_BYTES + BCode.ERROR_CORRECTION_BYTES];
+		for (int id = 0; id < BCode.UNIQUE_ID_COUNT; id++)
+		{
+			Arrays.fill(bytes, 0);
+			bytes[0] = (id >> BCode.BLOCK_SIZE) & 0xFF;
+			bytes[1] = id & 0xFF;
+			encoder.encode(bytes, BCode.ERROR_CORRECTION_BYTES);
+			int word = pack(bytes);
+			for (int i = 0; i < 1 << BCode.BLOCK_SIZE; i++)
+			{
+				int syndromeFreeByte = multiplyByAlpha(multiplyByAlpha(multiplyByAlpha(bytes[0]) ^ bytes[1]) ^ i);
+				put((word & ~0xFFFF) | (i << BCode.BLOCK_SIZE) | syndromeFreeByte, packResult(id, false));
+			}
+			for (int i = 0; i < bytes.length; i++)
+			{
+				int shift = (bytes.length - 1 - i) * BCode.BLOCK_SIZE;
+				int valueCount = i == 0 ? 1 << (BCode.BLOCK_SIZE - BCode.MASKED_BIT_COUNT) : 1 << BCode.BLOCK_SIZE;
+				for (int value = 0; value < valueCount; value++) 
+				{
+					if (value != bytes[i]) put((word & ~(0xFF << shift)) | (value << shift), packResult(id, true));
+				}
+			}
+		}
+	}
+	
+	private Decoder()
+	{
+	}
+	
+	private static int multiplyByAlpha(int value)
+	{
+		value <<= 1;
+		return value < 1 << BCode.BLOCK_SIZE ? value : value ^ FIELD_PRIMITIVE;
+	}
+	
+	private static int pack(int[] bytes)
+	{
+		int word = 0;
+		for (int i = 0; i < bytes.length; i++) word = (word << BCode.BLOCK_SIZE) | bytes[i];
+		return word;
+	}
+	
+	private static int hash(int word)
+	{
+		return (word * 0x9E3779B9) >>> (Integer.SIZE - TABLE_SIZE_BITS);
+	}
+
+	private static void put(int word, int result)
+	{
+		int slot = hash(word);
+		while (keys[slot] != EMPTY) 
+		{
+			if (keys[slot] == word) throw new IllegalStateException();
+			slot = (slot + 1) & (keys.length - 1);
+		}
+		keys[slot] = word;
+		values[slot] = (short) result;
+	}
+
+	private static int packResult(int id, boolean isErrorCorrected)
+	{
+		return (id << 1) | (isErrorCorrected ? 1 : 0);
+	}
+
+	public static int getID(int result)
+	{
+		return result >> 1;
+	}
+	
+	public static boolean isErrorCorrected(int result)
+	{
+		return (result & 1) == 1;
+	}
+	
+	public static int lookUp(BitMatrix matrix)
+	{
+		return lookUp(BitGrid.pack(matrix, new long[BitGrid.WORD_COUNT]));
+	}
+	
+	// returns the same ID and error correction flag as decode, packed into 
+	// one int that can be read with getID and isErrorCorrected, or 
+	// NOT_DECODABLE where decode throws an exception; does not allocate 
+	public static int lookUp(long[] grid)
+	{
+		int word = 0;
+		for (int y = 0; y < BitGrid.SIZE; y++) if (rowTables[y] != null) word |= rowTables[y][BitGrid.getRow(grid, y)];
+		int slot = hash(word);
+		while (keys[slot] != EMPTY)
+		{
+			if (keys[slot] == word) return values[slot];
+			slot = (slot + 1) & (keys.length - 1);
+		}
+		return NOT_DECODABLE;
+	}
+	
 	public static int[] decode(BitMatrix matrix) throws ReedSolomonException
 	{
 		int[] bytes = Decoder.parseMatrix(matrix);
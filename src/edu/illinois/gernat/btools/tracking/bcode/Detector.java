@@ -19,12 +19,10 @@
 
 package edu.illinois.gernat.btools.tracking.bcode;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.google.zxing.common.BitMatrix;
-import com.google.zxing.common.GridSampler;
-import com.google.zxing.common.PerspectiveTransform;
 
 import edu.illinois.gernat.btools.common.geometry.Coordinate;
 import edu.illinois.gernat.btools.common.geometry.Vector;
@@ -37,23 +35,60 @@ import edu.illinois.gernat.btools.common.geometry.Vector;
 public final class Detector
 {
 
-	public static double minTemplateConservation = 0.8;
+	public static final double DEFAULT_MIN_TEMPLATE_CONSERVATION = 0.8;
 	
-	public static boolean checkMargin = false;
+	public static final boolean DEFAULT_CHECK_MARGIN = false;
 	
-	private Detector() 
+	private static final long[] TEMPLATE = BitGrid.pack(BCode.createTemplate(), new long[BitGrid.WORD_COUNT]);
+	
+	private static final long[] BLACK_MASK = BitGrid.createMask(BCode.TEMPLATE_XY_BLACK);
+
+	private static final long[] WHITE_MASK = BitGrid.createMask(BCode.TEMPLATE_XY_WHITE);
+
+	private static final long[] MARGIN_MASK = BitGrid.createMask(BCode.TEMPLATE_XY_MARGIN);
+	
+	private final double minTemplateConservation;
+	
+	private final boolean checkMargin;
+	
+	private final boolean verifyDecoding;
+	
+	// detectors are shared by the threads of a parallel threshold sweep, so
+	// each thread gets its own scratch structures
+	private final ThreadLocal<Context> contexts;
+	
+	public Detector() 
+	{
+		this(DEFAULT_MIN_TEMPLATE_CONSERVATION, DEFAULT_CHECK_MARGIN);
+	}
+
+	public Detector(double minTemplateConservation, boolean checkMargin) 
 	{
+		this(minTemplateConservation, checkMargin, false);
+	}
+
+	// if decoding is verified, every bCode is decoded with the lookup table 
+	// and with the Reed-Solomon decoder, and an exception is thrown if the two
+	// disagree
+	public Detector(double minTemplateConservation, boolean checkMargin, boolean verifyDecoding) 
+	{
+		this.minTemplateConservation = minTemplateConservation;
+		this.checkMargin = checkMargin;
+		this.verifyDecoding = verifyDecoding;
+		contexts = ThreadLocal.withInitial(Context::new);
 	}
 	
-	public static List<BCode> detect(BitMatrix image, Index index) 
+	public List<BCode> detect(BitMatrix image, Index index) 
 	{	    
-		LinkedList<BCode> beeIDs = new LinkedList<BCode>();
-		List<BigSquare> finderPatterns = Detector.findFinderPatterns(image, index);
+		Context context = contexts.get();
+		ArrayList<BCode> beeIDs = new ArrayList<BCode>();
+		Pattern[] pattern = context.patterns;
+		List<BigSquare> finderPatterns = Detector.findFinderPatterns(context.finderFinder, image, index);
 	    for (BigSquare finderPattern : finderPatterns)
 		{
 	    	
 	    	//
-			List<SmallSquare> alignmentPatterns = Detector.findAlignmentPatters(image, finderPattern);
+			List<SmallSquare> alignmentPatterns = Detector.findAlignmentPatters(context.alignmentFinder, image, finderPattern);
 			
 			// if only one alignment pattern can be found, guess the position 
 			// of the other pattern
@@ -78,38 +113,39 @@ public final class Detector
 				{
 					
 					// check that finder pattern is the top-left pattern 
-					Pattern[] pattern = new Pattern[BCode.PATTERN_COUNT];
 					pattern[0] = finderPattern;
 					pattern[1] = alignmentPatterns.get(i);
 					pattern[2] = alignmentPatterns.get(j);
 					Pattern.orderPatterns(pattern);
 					if (!(pattern[1] instanceof BigSquare)) continue;
+					BigSquare topLeft = (BigSquare) pattern[1];
+					SmallSquare bottomLeft = (SmallSquare) pattern[0];
+					SmallSquare topRight = (SmallSquare) pattern[2];
 
-					// create bee ID if alignment patterns are not 
-					// within or too close to finder pattern
-					BCode beeID = BCode.createFrom((BigSquare) pattern[1], (SmallSquare) pattern[0], (SmallSquare) pattern[2]);
-					if (Pattern.distance(pattern[0], pattern[1]) <= ((float) BCode.TL_WIDTH / 2 + 1) * beeID.moduleSize) continue;
-					if (Pattern.distance(pattern[0], pattern[2]) <= ((float) BCode.TL_WIDTH / 2 + 1) * beeID.moduleSize) continue;
-					beeIDs.add(beeID);
+					// skip candidate if its module size would be smaller than
+					// 1 or if alignment patterns are within or too close to 
+					// finder pattern
+					float moduleSize = BCode.getModuleSize(topLeft, bottomLeft, topRight);
+					if (moduleSize < 1.0f) continue;
+					if (Pattern.distance(pattern[0], pattern[1]) <= ((float) BCode.TL_WIDTH / 2 + 1) * moduleSize) continue;
+					if (Pattern.distance(pattern[0], pattern[2]) <= ((float) BCode.TL_WIDTH / 2 + 1) * moduleSize) continue;
 					
-					//
-					PerspectiveTransform transform = PerspectiveTransform.quadrilateralToQuadrilateral(BCode.TL_POSITION.x, BCode.TL_POSITION.y, BCode.TR_POSITION.x, BCode.TR_POSITION.y, BCode.BR_POSITION.x, BCode.BR_POSITION.y, BCode.BL_POSITION.x, BCode.BL_POSITION.y, beeID.finderPattern.getX(), beeID.finderPattern.getY(), beeID.topRight.getX(), beeID.topRight.getY(), beeID.bottomRight.getX(), beeID.bottomRight.getY(), beeID.bottomLeft.getX(), beeID.bottomLeft.getY());					
-					try
-					{
-						beeID.bits = GridSampler.getInstance().sampleGrid(image, BCode.DIMENSION + BCode.MARGIN * 2, BCode.DIMENSION + BCode.MARGIN * 2, transform);
-						beeID.templateConservation = computeTemplateConservation(beeID.bits);
-						if (beeID.templateConservation >= Detector.minTemplateConservation)
-						{
-							beeID.hasGoodTemplate = true;
-							int[] result = Decoder.decode(beeID.bits);
-							beeID.data = result[Decoder.FIELD_ID];
-							beeID.isErrorCorrected = result[Decoder.FIELD_ERROR_CORRECTION_FLAG] == 1;
-							beeID.isDecoded = true;
-						}
-					} 
-					catch (Exception e)
-					{
-					}				
+					// sample candidate and check its template; a bee ID is 
+					// only created if the template is good enough
+					BitMatrix bits = context.sampler.sample(image, topLeft.getX(), topLeft.getY(), topRight.getX(), topRight.getY(), BCode.getBottomRightX(topLeft, bottomLeft, topRight), BCode.getBottomRightY(topLeft, bottomLeft, topRight), bottomLeft.getX(), bottomLeft.getY());
+					if (bits == null) continue;
+					long[] grid = BitGrid.pack(bits, context.grid);
+					double templateConservation = computeTemplateConservation(grid);
+					if (templateConservation < minTemplateConservation) continue;
+					BCode beeID = BCode.createFrom(topLeft, bottomLeft, topRight);
+					beeID.templateConservation = templateConservation;
+					beeID.hasGoodTemplate = true;
+					beeIDs.add(beeID);
+					int result = decode(bits, grid);
+					if (result == Decoder.NOT_DECODABLE) continue;
+					beeID.data = Decoder.getID(result);
+					beeID.isErrorCorrected = Decoder.isErrorCorrected(result);
+					beeID.isDecoded = true;
 					
 				}
 			}
@@ -120,7 +156,30 @@ public final class Detector
 	
 	}
 	  
-	private static List<SmallSquare> findAlignmentPatters(BitMatrix image, BigSquare finderPattern) 
+	private int decode(BitMatrix bits, long[] grid)
+	{
+		
+		// decode with the lookup table
+		int result = Decoder.lookUp(grid);
+		if (!verifyDecoding) return result;
+		
+		// if requested, check the result against the Reed-Solomon decoder
+		int expectedResult;
+		try
+		{
+			int[] fields = Decoder.decode(bits);
+			expectedResult = (fields[Decoder.FIELD_ID] << 1) | fields[Decoder.FIELD_ERROR_CORRECTION_FLAG];
+		}
+		catch (Exception e)
+		{
+			expectedResult = Decoder.NOT_DECODABLE;
+		}
+		if (result != expectedResult) throw new IllegalStateException("bCode detector: lookup table and Reed-Solomon decoder disagree");
+		return result;
+
+	}
+
+	private static List<SmallSquare> findAlignmentPatters(SmallSquareFinder alignmentFinder, BitMatrix image, BigSquare finderPattern) 
 	{		
 	    float estimatedModuleSize = finderPattern.moduleSize;
 	    int xOffset = (int) (finderPattern.getX() - BCode.ALIGNMENT_PATTERN_SEARCH_RADIUS * estimatedModuleSize);
@@ -131,58 +190,53 @@ public final class Detector
 	    yOffset -= top;
 	    int width = Math.min(image.getWidth() - left, (int) (BCode.ALIGNMENT_PATTERN_SEARCH_RADIUS * estimatedModuleSize * 2) + xOffset);
 	    int height = Math.min(image.getHeight() - top, (int) (BCode.ALIGNMENT_PATTERN_SEARCH_RADIUS * estimatedModuleSize * 2) + yOffset);
-	    SmallSquareFinder alignmentFinder = new SmallSquareFinder(image, left, top, width, height, estimatedModuleSize);
+	    alignmentFinder.reset(image, left, top, width, height, estimatedModuleSize);
 	    alignmentFinder.find(); 
 	    return (List<SmallSquare>) alignmentFinder.getPossibleCenters();
 	}
 
-	private static List<BigSquare> findFinderPatterns(BitMatrix image, Index index) 
+	private static List<BigSquare> findFinderPatterns(BigSquareFinder finderFinder, BitMatrix image, Index index) 
 	{
-		BigSquareFinder finderFinder = new BigSquareFinder(image, index);
+		finderFinder.reset(image, index);
 	    finderFinder.find();
 	    return (List<BigSquare>) finderFinder.getPossibleCenters();
 	}
 
-	private static double computeTemplateConservation(BitMatrix matrix)
+	private double computeTemplateConservation(long[] grid)
 	{
 		
-		// create a template to compare the current barcode to 
-		BitMatrix template = BCode.createTemplate();		
-
-		// count how many black modules in the center are the same as in the template
-		int blackMatches = 0;
-		for (int i = 0; i < BCode.TEMPLATE_XY_BLACK.length; i++) 
-		{
-			int x = BCode.TEMPLATE_XY_BLACK[i][0];
-			int y = BCode.TEMPLATE_XY_BLACK[i][1];
-			if (matrix.get(x, y) == template.get(x, y)) blackMatches++; 
-		}
-
-		// count how many white modules in the center are the same as in the template
-		int whiteMatches = 0;
-		for (int i = 0; i < BCode.TEMPLATE_XY_WHITE.length; i++) 
-		{
-			int x = BCode.TEMPLATE_XY_WHITE[i][0];
-			int y = BCode.TEMPLATE_XY_WHITE[i][1];
-			if (matrix.get(x, y) == template.get(x, y)) whiteMatches++; 
-		}
+		// count how many black and white modules in the center are the same
+		// as in the template
+		int blackMatches = BCode.TEMPLATE_XY_BLACK.length - BitGrid.countMismatches(grid, TEMPLATE, BLACK_MASK);
+		int whiteMatches = BCode.TEMPLATE_XY_WHITE.length - BitGrid.countMismatches(grid, TEMPLATE, WHITE_MASK);
 
 		// if the margin does not need to be checked, return conservation 
 		// score for center only
 		if (!checkMargin) return ((double) blackMatches / BCode.TEMPLATE_XY_BLACK.length + (double) whiteMatches / BCode.TEMPLATE_XY_WHITE.length) / 2;
 		
 		// count how many modules in the margin are the same as in the template
-		int marginMatches = 0;
-		for (int i = 0; i < BCode.TEMPLATE_XY_MARGIN.length; i++) 
-		{
-			int x = BCode.TEMPLATE_XY_MARGIN[i][0];
-			int y = BCode.TEMPLATE_XY_MARGIN[i][1];
-			if (matrix.get(x, y) == template.get(x, y)) marginMatches++; 
-		}
+		int marginMatches = BCode.TEMPLATE_XY_MARGIN.length - BitGrid.countMismatches(grid, TEMPLATE, MARGIN_MASK);
 
 		// return conservation score for whole barcode
 		return ((double) blackMatches / BCode.TEMPLATE_XY_BLACK.length + (double) whiteMatches / BCode.TEMPLATE_XY_WHITE.length + marginMatches / BCode.TEMPLATE_XY_MARGIN.length) / 3;
 
 	}
 	
+	// scratch structures of one thread; they are reused for every candidate, 
+	// so that a threshold sweep creates hardly any garbage
+	private static final class Context
+	{
+
+		private final BigSquareFinder finderFinder = new BigSquareFinder();
+
+		private final SmallSquareFinder alignmentFinder = new SmallSquareFinder();
+
+		private final Pattern[] patterns = new Pattern[BCode.PATTERN_COUNT];
+
+		private final Sampler sampler = new Sampler();
+
+		private final long[] grid = new long[BitGrid.WORD_COUNT];
+
+	}
+	
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.tracking.bcode;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+
+import org.bytedeco.javacv.Frame;
+
+import com.google.zxing.LuminanceSource;
+
+import ij.process.ColorProcessor;
+
+// Luminance source backed by a plain array of 8-bit gray values. Unlike
+// BufferedImageLuminanceSource, getMatrix() returns the backing array
+// without copying it.
+public final class GrayLuminanceSource extends LuminanceSource
+{
+
+	private final byte[] luminances;
+
+	public GrayLuminanceSource(byte[] luminances, int width, int height)
+	{
+		super(width, height);
+		if (luminances.length != width * height) throw new IllegalArgumentException();
+		this.luminances = luminances;
+	}
+
+	// copies the gray plane of a video frame that was decoded in the
+	// AV_PIX_FMT_GRAY8 pixel format
+	public static GrayLuminanceSource createFrom(Frame frame)
+	{
+		if ((frame.imageChannels != 1) || (frame.imageDepth != Frame.DEPTH_UBYTE)) throw new IllegalArgumentException("bCode detector: frame is not an 8-bit gray frame");
+		int width = frame.imageWidth;
+		int height = frame.imageHeight;
+		byte[] luminances = new byte[width * height];
+		ByteBuffer buffer = ((ByteBuffer) frame.image[0]).duplicate();
+		for (int y = 0; y < height; y++)
+		{
+			buffer.position(y * frame.imageStride);
+			buffer.get(luminances, y * width, width);
+		}
+		return new GrayLuminanceSource(luminances, width, height);
+	}
+
+	// converts an image to gray values the same way as ImageJ, i.e., gray 
+	// images are copied and color channels are combined with ImageJ's RGB 
+	// weighting factors, which are 1/3 each by default
+	public static GrayLuminanceSource createFrom(BufferedImage image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		byte[] luminances = new byte[width * height];
+		if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) image.getRaster().getDataElements(0, 0, width, height, luminances);
+		else
+		{
+			double[] weights = ColorProcessor.getWeightingFactors();
+			int[] row = new int[width];
+			for (int y = 0; y < height; y++)
+			{
+				image.getRGB(0, y, width, 1, row, 0, width);
+				for (int x = 0; x < width; x++) 
+				{
+					int r = (row[x] >> 16) & 0xff;
+					int g = (row[x] >> 8) & 0xff;
+					int b = row[x] & 0xff;
+					luminances[y * width + x] = (byte) (r * weights[0] + g * weights[1] + b * weights[2] + 0.5);
+				}
+			}
+		}
+		return new GrayLuminanceSource(luminances, width, height);
+	}
+
+	@Override
+	public byte[] getRow(int y, byte[] row)
+	{
+		int width = getWidth();
+		if ((row == null) || (row.length < width)) row = new byte[width];
+		System.arraycopy(luminances, y * width, row, 0, width);
+		return row;
+	}
+
+	@Override
+	public byte[] getMatrix()
+	{
+		return luminances;
+	}
+
+	// returns a gray image that shares its pixel data with this luminance
+	// source
+	public BufferedImage toBufferedImage()
+	{
+		ColorModel colorModel = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).getColorModel();
+		WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(luminances, luminances.length), getWidth(), getHeight(), getWidth(), 1, new int[] {0}, null);
+		return new BufferedImage(colorModel, raster, false, null);
+	}
+
+}
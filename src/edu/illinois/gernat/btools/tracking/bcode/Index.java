@@ -24,14 +24,15 @@ package edu.illinois.gernat.btools.tracking.bcode;
  * @since 0.12.0
  * @author Tim Gernat
  */
+// Keeps track of the black pixels of a binarized image as one list of runs 
+// per row. Each run is stored as a pair of its first column and the column 
+// after its last pixel. 
 public class Index
 {
 
-	private static final int LEFT = 0;
+	private int[][] runs;
 	
-	private static final int RIGHT = 1;
-	
-	private int[][] index;
+	private int[] runCounts;
 	
 	private int top;
 	
@@ -39,8 +40,13 @@ public class Index
 	
 	public Index(int width, int height)
 	{
-		index = new int[height][2];
-		for (int i = 0; i < height; i++) index[i][RIGHT] = width - 1;
+		runs = new int[height][];
+		runCounts = new int[height];
+		for (int i = 0; i < height; i++) 
+		{
+			runs[i] = new int[] {0, width};
+			runCounts[i] = 1;
+		}
 		top = 0;
 		bottom = height - 1;
 	}
@@ -67,22 +73,29 @@ public class Index
 
 	public int getLeft(int row)
 	{
-		return index[row][LEFT];
+		return runCounts[row] == 0 ? 1 : runs[row][0];
 	}
 
-	public int setLeft(int row, int value)
+	public int getRight(int row)
 	{
-		return index[row][LEFT] = value;
+		return runCounts[row] == 0 ? 0 : runs[row][2 * runCounts[row] - 1] - 1;
 	}
-
-	public int getRight(int row)
+	
+	public int getRunCount(int row)
 	{
-		return index[row][RIGHT];
+		return runCounts[row];
 	}
-
-	public int setRight(int row, int value)
+	
+	public int[] getRuns(int row)
+	{
+		return runs[row];
+	}
+	
+	public void setRuns(int row, int[] runs, int runCount)
 	{
-		return index[row][RIGHT] = value;
+		if (this.runs[row].length < 2 * runCount) this.runs[row] = new int[2 * runCount];
+		System.arraycopy(runs, 0, this.runs[row], 0, 2 * runCount);
+		runCounts[row] = runCount;
 	}
 	
 }
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.tracking.bcode;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Scales and sharpens 8-bit gray values in fixed-point arithmetic. The
+// filter follows what Preprocessor does with ImageJ: bilinear resizing with
+// ImageJ's pixel mapping, unsharp masking with ImageJ's Gaussian kernel and
+// edge handling, and conversion back to 8 bits by stretching the gray value
+// range of the input image to 0..255. Results differ from the ImageJ path by
+// rounding only, except for sharpening sigmas above 8.5, for which ImageJ
+// approximates the blur on a downscaled image. Intermediate images hold gray
+// values with FRACTION_BITS fractional bits. Rows are processed in parallel
+// if a pool is given.
+public final class LuminanceFilter
+{
+
+	private static final int FRACTION_BITS = 8;
+
+	private static final int KERNEL_BITS = 14;
+
+	private static final int WEIGHT_BITS = 12;
+
+	private static final double GAUSSIAN_ACCURACY = 0.01; // as in ImageJ's UnsharpMask
+
+	// passes over the rows of an image
+	private static final int PASS_EXPAND = 0;
+
+	private static final int PASS_RESIZE = 1;
+
+	private static final int PASS_BLUR_HORIZONTALLY = 2;
+
+	private static final int PASS_BLUR_VERTICALLY = 3;
+
+	private static final int PASS_SHARPEN = 4;
+
+	private static final int PASS_CONVERT = 5;
+
+	private final float scalingFactor;
+
+	private final int[] kernel; // one side of the Gaussian kernel, including its center
+
+	private final long originalWeight;
+
+	private final long blurWeight;
+
+	private final ForkJoinPool pool;
+
+	// buffers are kept between images of the same size
+	private int[] image;
+
+	private int[] blurred;
+
+	private int[] temp;
+
+	// state of the image that is being filtered
+	private byte[] source;
+
+	private int sourceWidth;
+
+	private int sourceHeight;
+
+	private int width;
+
+	private int height;
+
+	private int[] xBase;
+
+	private int[] xFraction;
+
+	private int[] yBase;
+
+	private int[] yFraction;
+
+	private int min;
+
+	private long scale;
+
+	private byte[] result;
+
+	public LuminanceFilter(double sharpeningSigma, double sharpeningAmount, float scalingFactor, ForkJoinPool pool)
+	{
+		this.scalingFactor = scalingFactor;
+		this.pool = pool;
+		if (sharpeningAmount == 0)
+		{
+			kernel = null;
+			originalWeight = 0;
+			blurWeight = 0;
+		}
+		else
+		{
+
+			// unsharp masking computes (original - weight * blurred) /
+			// (1 - weight) with a float weight
+			float weight = (float) sharpeningAmount;
+			kernel = createKernel(sharpeningSigma);
+			originalWeight = Math.round((1 << WEIGHT_BITS) / (1.0 - weight));
+			blurWeight = Math.round((1 << WEIGHT_BITS) * weight / (1.0 - weight));
+
+		}
+	}
+
+	public GrayLuminanceSource filter(byte[] luminances, int width, int height)
+	{
+
+		// set up filter state
+		source = luminances;
+		sourceWidth = width;
+		sourceHeight = height;
+		if (scalingFactor != 1)
+		{
+			this.width = (int) (width * scalingFactor);
+			this.height = (int) (this.width * ((double) height / width));
+		}
+		else
+		{
+			this.width = width;
+			this.height = height;
+		}
+		if ((this.width < 1) || (this.height < 1)) throw new IllegalArgumentException();
+		int size = this.width * this.height;
+		if ((image == null) || (image.length != size))
+		{
+			image = new int[size];
+			blurred = kernel == null ? null : new int[size];
+			temp = kernel == null ? null : new int[size];
+		}
+		result = new byte[size];
+
+		// the gray value range of the input image is stretched to 0..255
+		int max = 0;
+		min = 255;
+		for (byte luminance : luminances)
+		{
+			int value = luminance & 0xff;
+			if (value < min) min = value;
+			if (value > max) max = value;
+		}
+		scale = max == min ? 0 : Math.round(255.0 * (1L << (32 - FRACTION_BITS)) / (max - min));
+
+		// scale image
+		if (scalingFactor != 1)
+		{
+			createMapping();
+			process(PASS_RESIZE);
+		}
+		else process(PASS_EXPAND);
+
+		// sharpen image and convert it to 8 bits
+		if (kernel != null)
+		{
+			process(PASS_BLUR_HORIZONTALLY);
+			process(PASS_BLUR_VERTICALLY);
+			process(PASS_SHARPEN);
+		}
+		else process(PASS_CONVERT);
+
+		// done
+		GrayLuminanceSource filtered = new GrayLuminanceSource(result, this.width, this.height);
+		source = null;
+		result = null;
+		return filtered;
+
+	}
+
+	private void process(int pass)
+	{
+		if ((pool == null) || (pool.getParallelism() == 1)) process(pass, 0, height);
+		else
+		{
+			int chunkSize = Math.max(1, (height + pool.getParallelism() - 1) / pool.getParallelism());
+			pool.invoke(new RowRangeTask(pass, 0, height, chunkSize));
+		}
+	}
+
+	private void process(int pass, int from, int to)
+	{
+		switch (pass)
+		{
+			case PASS_EXPAND: expand(from, to); break;
+			case PASS_RESIZE: resize(from, to); break;
+			case PASS_BLUR_HORIZONTALLY: blurHorizontally(from, to); break;
+			case PASS_BLUR_VERTICALLY: blurVertically(from, to); break;
+			case PASS_SHARPEN: sharpen(from, to); break;
+			case PASS_CONVERT: convert(from, to); break;
+			default: throw new IllegalArgumentException();
+		}
+	}
+
+	private void expand(int from, int to)
+	{
+		for (int i = from * width; i < to * width; i++) image[i] = (source[i] & 0xff) << FRACTION_BITS;
+	}
+
+	// maps target pixels to source pixels the same way as ImageJ's
+	// FloatProcessor.resize does for bilinear interpolation
+	private void createMapping()
+	{
+		xBase = new int[width];
+		xFraction = new int[width];
+		createMapping(sourceWidth, width, xBase, xFraction);
+		yBase = new int[height];
+		yFraction = new int[height];
+		createMapping(sourceHeight, height, yBase, yFraction);
+	}
+
+	private static void createMapping(int sourceLength, int length, int[] base, int[] fraction)
+	{
+		double sourceCenter = sourceLength / 2.0;
+		double scale = (double) length / sourceLength;
+		double center = length / 2.0 + scale / 2.0;
+		double limit = sourceLength - 1.0;
+		double limit2 = sourceLength - 1.001;
+		for (int i = 0; i < length; i++)
+		{
+			double s = (i - center) / scale + sourceCenter;
+			if (s < 0) s = 0;
+			if (s >= limit) s = limit2;
+			base[i] = Math.max(0, (int) s);
+			fraction[i] = (int) Math.round((s - base[i]) * (1 << FRACTION_BITS));
+		}
+	}
+
+	private void resize(int from, int to)
+	{
+		int one = 1 << FRACTION_BITS;
+		int round = 1 << (FRACTION_BITS - 1);
+		for (int y = from; y < to; y++)
+		{
+			int lowerOffset = yBase[y] * sourceWidth;
+			int upperOffset = Math.min(yBase[y] + 1, sourceHeight - 1) * sourceWidth;
+			int fy = yFraction[y];
+			int offset = y * width;
+			for (int x = 0; x < width; x++)
+			{
+				int left = xBase[x];
+				int right = Math.min(left + 1, sourceWidth - 1);
+				int fx = xFraction[x];
+				int lower = (source[lowerOffset + left] & 0xff) * (one - fx) + (source[lowerOffset + right] & 0xff) * fx;
+				int upper = (source[upperOffset + left] & 0xff) * (one - fx) + (source[upperOffset + right] & 0xff) * fx;
+				image[offset + x] = (lower * (one - fy) + upper * fy + round) >> FRACTION_BITS;
+			}
+		}
+	}
+
+	// pixels outside the image have the value of the nearest edge pixel, as
+	// in ImageJ's GaussianBlur
+	private void blurHorizontally(int from, int to)
+	{
+		int radius = kernel.length - 1;
+		int round = 1 << (KERNEL_BITS - 1);
+		for (int y = from; y < to; y++)
+		{
+			int offset = y * width;
+			for (int x = 0; x < width; x++)
+			{
+				int sum = kernel[0] * image[offset + x];
+				for (int d = 1; d <= radius; d++) sum += kernel[d] * (image[offset + Math.max(x - d, 0)] + image[offset + Math.min(x + d, width - 1)]);
+				temp[offset + x] = (sum + round) >> KERNEL_BITS;
+			}
+		}
+	}
+
+	private void blurVertically(int from, int to)
+	{
+		int radius = kernel.length - 1;
+		int round = 1 << (KERNEL_BITS - 1);
+		int[] sums = new int[width];
+		for (int y = from; y < to; y++)
+		{
+			int offset = y * width;
+			for (int x = 0; x < width; x++) sums[x] = kernel[0] * temp[offset + x];
+			for (int d = 1; d <= radius; d++)
+			{
+				int above = Math.max(y - d, 0) * width;
+				int below = Math.min(y + d, height - 1) * width;
+				int k = kernel[d];
+				for (int x = 0; x < width; x++) sums[x] += k * (temp[above + x] + temp[below + x]);
+			}
+			for (int x = 0; x < width; x++) blurred[offset + x] = (sums[x] + round) >> KERNEL_BITS;
+		}
+	}
+
+	private void sharpen(int from, int to)
+	{
+		long round = 1L << (WEIGHT_BITS - 1);
+		for (int i = from * width; i < to * width; i++) result[i] = toByte((int) ((originalWeight * image[i] - blurWeight * blurred[i] + round) >> WEIGHT_BITS));
+	}
+
+	private void convert(int from, int to)
+	{
+		for (int i = from * width; i < to * width; i++) result[i] = toByte(image[i]);
+	}
+
+	// stretches the gray value range of the input image to 0..255 like
+	// ImageJ's FloatProcessor.create8BitImage
+	private byte toByte(int value)
+	{
+		long v = value - ((long) min << FRACTION_BITS);
+		if (v <= 0) return 0;
+		if (scale == 0) return (byte) 255;
+		long scaled = (v * scale + (1L << 31)) >> 32;
+		return (byte) (scaled > 255 ? 255 : scaled);
+	}
+
+	// creates the Gaussian kernel of ImageJ's GaussianBlur, including its
+	// smoothed tail, and converts it to fixed point
+	private static int[] createKernel(double sigma)
+	{
+		if (sigma <= 0) return new int[] {1 << KERNEL_BITS};
+		int radius = (int) Math.ceil(sigma * Math.sqrt(-2 * Math.log(GAUSSIAN_ACCURACY))) + 1;
+		double[] kernel = new double[radius];
+		for (int i = 0; i < radius; i++) kernel[i] = (float) Math.exp(-0.5 * i * i / sigma / sigma);
+		if (radius > 3)
+		{
+			double sqrtSlope = Double.MAX_VALUE;
+			int r = radius;
+			while (r > radius / 2)
+			{
+				r--;
+				double a = Math.sqrt(kernel[r]) / (radius - r);
+				if (a < sqrtSlope) sqrtSlope = a;
+				else break;
+			}
+			for (int r1 = r + 2; r1 < radius; r1++) kernel[r1] = (float) ((radius - r1) * (radius - r1) * sqrtSlope * sqrtSlope);
+		}
+		double sum = kernel[0];
+		for (int i = 1; i < radius; i++) sum += 2 * kernel[i];
+
+		// the center weight absorbs rounding errors, so that the weights add
+		// up to exactly one
+		int[] fixedKernel = new int[radius];
+		int fixedSum = 0;
+		for (int i = 1; i < radius; i++)
+		{
+			fixedKernel[i] = (int) Math.round(kernel[i] / sum * (1 << KERNEL_BITS));
+			fixedSum += 2 * fixedKernel[i];
+		}
+		fixedKernel[0] = (1 << KERNEL_BITS) - fixedSum;
+		return fixedKernel;
+	}
+
+	private final class RowRangeTask extends RecursiveAction
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private final int pass;
+
+		private final int from;
+
+		private final int to;
+
+		private final int chunkSize;
+
+		public RowRangeTask(int pass, int from, int to, int chunkSize)
+		{
+			this.pass = pass;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= chunkSize) process(pass, from, to);
+			else
+			{
+				int middle = from + (to - from + 1) / 2;
+				invokeAll(new RowRangeTask(pass, from, middle, chunkSize), new RowRangeTask(pass, middle, to, chunkSize));
+			}
+		}
+
+	}
+
+}
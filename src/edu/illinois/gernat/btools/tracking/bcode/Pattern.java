@@ -19,8 +19,6 @@
 
 package edu.illinois.gernat.btools.tracking.bcode;
 
-import com.google.zxing.ResultPoint;
-
 /**
  * @version 0.12.0
  * @since 0.12.0
@@ -75,6 +73,14 @@ public class Pattern
 		this.moduleSize = cModuleSize / count;
 	}
 
+	public void translate(float dx, float dy)
+	{
+		x += dx;
+		y += dy;
+		cx += count * dx;
+		cy += count * dy;
+	}
+
 	protected boolean isSimilar(float moduleSize, float x, float y) 
 	{
 		if (Math.abs(y - getY()) < moduleSize && Math.abs(x - getX()) < moduleSize) 
@@ -107,31 +113,50 @@ public class Pattern
 		return (float) Math.sqrt((double) (dx * dx + dy * dy));
 	}
 
+	// orders patterns the same way as ResultPoint.orderBestPatterns, but
+	// without copying them into ResultPoints
 	public static void orderPatterns(Pattern[] patternCenters) 
 	{
 
 		if (patternCenters.length != BCode.PATTERN_COUNT) throw new IllegalArgumentException();
-		ResultPoint[] unorderedPoints = new ResultPoint[BCode.PATTERN_COUNT];
-		for (int i = 0; i < BCode.PATTERN_COUNT; i++) unorderedPoints[i] = new ResultPoint(patternCenters[i].x, patternCenters[i].y);
 
-		ResultPoint[] orderedPoints = unorderedPoints.clone();
-		ResultPoint.orderBestPatterns(orderedPoints);
+		// the pattern opposite of the longest side is the corner pattern
+		float zeroOneDistance = distance(patternCenters[0], patternCenters[1]);
+		float oneTwoDistance = distance(patternCenters[1], patternCenters[2]);
+		float zeroTwoDistance = distance(patternCenters[0], patternCenters[2]);
+		Pattern pointA;
+		Pattern pointB;
+		Pattern pointC;
+		if (oneTwoDistance >= zeroOneDistance && oneTwoDistance >= zeroTwoDistance) 
+		{
+			pointB = patternCenters[0];
+			pointA = patternCenters[1];
+			pointC = patternCenters[2];
+		} 
+		else if (zeroTwoDistance >= oneTwoDistance && zeroTwoDistance >= zeroOneDistance) 
+		{
+			pointB = patternCenters[1];
+			pointA = patternCenters[0];
+			pointC = patternCenters[2];
+		} 
+		else 
+		{
+			pointB = patternCenters[2];
+			pointA = patternCenters[0];
+			pointC = patternCenters[1];
+		}
 
-		int[] order = new int[BCode.PATTERN_COUNT];
-		for (int i = 0; i < BCode.PATTERN_COUNT; i++) 
+		// use the cross product to tell the other two patterns apart
+		if ((pointC.x - pointB.x) * (pointA.y - pointB.y) - (pointC.y - pointB.y) * (pointA.x - pointB.x) < 0.0f) 
 		{
-			for (int j = 0; j < BCode.PATTERN_COUNT; j++) 
-			{
-				if (unorderedPoints[i] == orderedPoints[j]) 
-				{
-					order[i] = j;
-					break;
-				}
-			}
+			Pattern temp = pointA;
+			pointA = pointC;
+			pointC = temp;
 		}
 
-		Pattern[] originalPatternCenters = patternCenters.clone();
-		for (int i = 0; i < BCode.PATTERN_COUNT; i++) patternCenters[order[i]] = originalPatternCenters[i];
+		patternCenters[0] = pointA;
+		patternCenters[1] = pointB;
+		patternCenters[2] = pointC;
 
 	}
 
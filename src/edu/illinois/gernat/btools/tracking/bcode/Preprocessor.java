@@ -20,6 +20,10 @@
 package edu.illinois.gernat.btools.tracking.bcode;
 
 import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.zxing.LuminanceSource;
 
 import ij.ImagePlus;
 import ij.Prefs;
@@ -35,17 +39,44 @@ import ij.process.ImageProcessor;
 public class Preprocessor 
 {
 
-	public static double sharpeningSigma = 0; // gaussian blur kernel radius ~= sigma * 3 + 1
+	private final double sharpeningSigma; // gaussian blur kernel radius ~= sigma * 3 + 1
+	
+	private final double sharpeningAmount;
 	
-	public static double sharpeningAmount = 0;
+	private final float scalingFactor;
 	
-	public static float scalingFactor = 1;
+	private final LuminanceFilter filter;
 
-	public static BufferedImage preprocess(BufferedImage image)
+	public Preprocessor()
+	{
+		this(0, 0, 1);
+	}
+
+	public Preprocessor(double sharpeningSigma, double sharpeningAmount, float scalingFactor)
+	{
+		this(sharpeningSigma, sharpeningAmount, scalingFactor, null);
+	}
+
+	// the pool, if any, is used to filter the rows of luminance sources in 
+	// parallel
+	public Preprocessor(double sharpeningSigma, double sharpeningAmount, float scalingFactor, ForkJoinPool pool)
+	{
+		this.sharpeningSigma = sharpeningSigma;
+		this.sharpeningAmount = sharpeningAmount;
+		this.scalingFactor = scalingFactor;
+		filter = new LuminanceFilter(sharpeningSigma, sharpeningAmount, scalingFactor, pool);
+	}
+	
+	public boolean isEnabled()
+	{
+		return (scalingFactor != 1) || (sharpeningAmount != 0);
+	}
+	
+	public BufferedImage preprocess(BufferedImage image)
 	{
 
 		// does image need to be preprocessed?
-		if ((scalingFactor != 1) || (sharpeningAmount != 0))
+		if (isEnabled())
 		{
 			
 			// set up an ImageJ image processor
@@ -76,5 +107,32 @@ public class Preprocessor
 		return image;
 
 	}
+
+	// scales and sharpens gray values in fixed-point arithmetic instead of 
+	// with ImageJ; see LuminanceFilter
+	public LuminanceSource preprocess(LuminanceSource source)
+	{
+		if (!isEnabled()) return source;
+		return filter.filter(source.getMatrix(), source.getWidth(), source.getHeight());
+	}
+
+	public void postprocess(List<MetaCode> metaIDs)
+	{
+		
+		// undo image scaling
+		if (scalingFactor != 1)
+		{
+			for (MetaCode metaID : metaIDs) 
+			{				
+				metaID.center.set(metaID.center.x / scalingFactor, metaID.center.y / scalingFactor);
+				metaID.moduleSize /= scalingFactor;
+				metaID.nw.set(metaID.nw.x / scalingFactor, metaID.nw.y / scalingFactor);
+				metaID.ne.set(metaID.ne.x / scalingFactor, metaID.ne.y / scalingFactor);
+				metaID.sw.set(metaID.sw.x / scalingFactor, metaID.sw.y / scalingFactor);
+				metaID.se.set(metaID.se.x / scalingFactor, metaID.se.y / scalingFactor);
+			}
+		}
+		
+	}
 	
 }
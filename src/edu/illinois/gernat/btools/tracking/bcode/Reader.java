@@ -22,9 +22,17 @@ package edu.illinois.gernat.btools.tracking.bcode;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import javax.imageio.ImageIO;
 
@@ -40,32 +48,327 @@ import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
 public final class Reader
 {
 
-	public static int minBlackThreshold = 10;
+	public static final int DEFAULT_MIN_BLACK_THRESHOLD = 10;
 	
-	public static int maxBlackThreshold = 250;
+	public static final int DEFAULT_MAX_BLACK_THRESHOLD = 250;
 
-	public static int thresholdStepSize = 5;
+	public static final int DEFAULT_THRESHOLD_STEP_SIZE = 5;
 	
-	private Reader()
+	public static final int DEFAULT_REFINEMENT_PATIENCE = 2;
+	
+	private final Detector detector;
+	
+	private final int minBlackThreshold;
+	
+	private final int maxBlackThreshold;
+
+	private final int thresholdStepSize;
+	
+	private final ForkJoinPool thresholdPool;
+	
+	private final int coarseStepFactor;
+	
+	private final int refinementPatience;
+	
+	private final int tileSize;
+	
+	private final float maxModuleSize;
+	
+	public Reader()
 	{
+		this(new Detector(), DEFAULT_MIN_BLACK_THRESHOLD, DEFAULT_MAX_BLACK_THRESHOLD, DEFAULT_THRESHOLD_STEP_SIZE);
 	}
 
-	public static List<MetaCode> read(BufferedImage image)
+	public Reader(Detector detector, int minBlackThreshold, int maxBlackThreshold, int thresholdStepSize)
+	{
+		this(detector, minBlackThreshold, maxBlackThreshold, thresholdStepSize, null);
+	}
+
+	// if a pool is given, the threshold range of each image is split into 
+	// contiguous subranges that are processed in parallel by the pool
+	public Reader(Detector detector, int minBlackThreshold, int maxBlackThreshold, int thresholdStepSize, ForkJoinPool thresholdPool)
+	{
+		this(detector, minBlackThreshold, maxBlackThreshold, thresholdStepSize, thresholdPool, 1, DEFAULT_REFINEMENT_PATIENCE);
+	}
+
+	// if the coarse step factor is greater than one, only every 
+	// coarseStepFactor-th threshold is visited at first; the thresholds 
+	// around those that yielded new bCode IDs are visited afterwards until
+	// refinementPatience thresholds in a row add no new bCode ID, and the 
+	// sweep stops once refinementPatience coarse thresholds in a row add no
+	// new bCode ID
+	public Reader(Detector detector, int minBlackThreshold, int maxBlackThreshold, int thresholdStepSize, ForkJoinPool thresholdPool, int coarseStepFactor, int refinementPatience)
+	{
+		this(detector, minBlackThreshold, maxBlackThreshold, thresholdStepSize, thresholdPool, coarseStepFactor, refinementPatience, 0, 0);
+	}
+
+	// if the tile size is greater than zero, images that are larger than a
+	// tile are split into square tiles that overlap by the size of the 
+	// largest expected bCode; if a pool is given, it processes the tiles of 
+	// an image in parallel instead of splitting the threshold range
+	public Reader(Detector detector, int minBlackThreshold, int maxBlackThreshold, int thresholdStepSize, ForkJoinPool thresholdPool, int coarseStepFactor, int refinementPatience, int tileSize, float maxModuleSize)
+	{
+		if (coarseStepFactor < 1) throw new IllegalArgumentException();
+		if (refinementPatience < 1) throw new IllegalArgumentException();
+		if ((tileSize < 0) || ((tileSize > 0) && (maxModuleSize <= 0))) throw new IllegalArgumentException();
+		this.detector = detector;
+		this.minBlackThreshold = minBlackThreshold;
+		this.maxBlackThreshold = maxBlackThreshold;
+		this.thresholdStepSize = thresholdStepSize;
+		this.thresholdPool = thresholdPool;
+		this.coarseStepFactor = coarseStepFactor;
+		this.refinementPatience = refinementPatience;
+		this.tileSize = tileSize;
+		this.maxModuleSize = maxModuleSize;
+	}
+
+	public List<MetaCode> read(BufferedImage image)
+	{
+		return read(new BufferedImageLuminanceSource(image));
+	}
+	
+	public List<MetaCode> read(LuminanceSource source)
+	{
+		
+		// detect bCodes; detections are kept per threshold
+		int thresholdCount = getThresholdCount();
+		List<List<BCode>> detections;
+		if ((tileSize > 0) && ((source.getWidth() > tileSize) || (source.getHeight() > tileSize))) detections = readTiles(source, thresholdCount);
+		else detections = read(source, thresholdCount, thresholdPool);
+		
+		// consolidate detections 
+		return consolidate(detections);
+		
+	}
+	
+	// reads bCodes in the window [left, right) x [top, bottom) of an image 
+	// given as an array of luminances; coordinates of the returned bCodes 
+	// refer to the whole image
+	public List<MetaCode> read(byte[] luminances, int width, int height, int left, int top, int right, int bottom)
+	{
+		left = Math.max(0, left);
+		top = Math.max(0, top);
+		right = Math.min(width, right);
+		bottom = Math.min(height, bottom);
+		if ((left >= right) || (top >= bottom)) return new LinkedList<MetaCode>();
+		List<List<BCode>> detections = read(crop(luminances, width, left, top, right, bottom), getThresholdCount(), null);
+		translate(detections, left, top);
+		return consolidate(detections);
+	}
+	
+	private int getThresholdCount()
+	{
+		return maxBlackThreshold < minBlackThreshold ? 0 : (maxBlackThreshold - minBlackThreshold) / thresholdStepSize + 1;
+	}
+	
+	// consolidates detections in the order of a full sweep from the highest 
+	// to the lowest threshold
+	private static List<MetaCode> consolidate(List<List<BCode>> detections)
 	{
-		LuminanceSource source = new BufferedImageLuminanceSource(image);
 		List<BCode> beeIDs = new LinkedList<BCode>();
-		Binarizer binarizer = new Binarizer(source);
-		for (int i = maxBlackThreshold; i >= minBlackThreshold; i -= thresholdStepSize)
-		{
-			binarizer.binarize(i);
-			beeIDs.addAll(Detector.detect(binarizer.getMatrix(), binarizer.getIndex()));
-		}
+		for (List<BCode> list : detections) if (list != null) beeIDs.addAll(list);
 		Iterator<BCode> iterator = beeIDs.iterator();
 		while (iterator.hasNext()) if (!iterator.next().hasGoodTemplate) iterator.remove();
-		return Consolidator.consolidate(beeIDs);		
+		return Consolidator.consolidate(beeIDs);
+	}
+	
+	private static GrayLuminanceSource crop(byte[] luminances, int width, int left, int top, int right, int bottom)
+	{
+		byte[] croppedLuminances = new byte[(right - left) * (bottom - top)];
+		for (int y = top; y < bottom; y++) System.arraycopy(luminances, y * width + left, croppedLuminances, (y - top) * (right - left), right - left);
+		return new GrayLuminanceSource(croppedLuminances, right - left, bottom - top);
+	}
+	
+	// moves detections by the given offset; several bCodes can share a 
+	// pattern, which must be moved only once
+	private static void translate(List<List<BCode>> detections, int dx, int dy)
+	{
+		Set<Pattern> moved = Collections.newSetFromMap(new IdentityHashMap<Pattern, Boolean>());
+		for (List<BCode> beeIDs : detections)
+		{
+			if (beeIDs == null) continue;
+			for (BCode beeID : beeIDs)
+			{
+				Pattern[] patterns = {beeID.finderPattern, beeID.bottomLeft, beeID.topRight, beeID.bottomRight, beeID.center};
+				for (Pattern pattern : patterns) if (moved.add(pattern)) pattern.translate(dx, dy);
+			}
+		}
+	}
+	
+	private List<List<BCode>> read(LuminanceSource source, int thresholdCount, ForkJoinPool pool)
+	{
+		
+		// sort the pixels once for all binarizers of the image
+		SortedPixels pixels = new SortedPixels(source);
+		List<List<BCode>> detections = new ArrayList<List<BCode>>(Collections.nCopies(thresholdCount, (List<BCode>) null));
+		if (coarseStepFactor == 1) sweep(pixels, createIndices(thresholdCount, 1), detections, pool);
+		else sweepAdaptively(pixels, thresholdCount, detections, pool);
+		return detections;
+		
+	}
+	
+	private List<List<BCode>> readTiles(LuminanceSource source, int thresholdCount)
+	{
+		
+		// split image into tiles
+		int width = source.getWidth();
+		int height = source.getHeight();
+		byte[] luminances = source.getMatrix();
+		int overlap = (int) Math.ceil((BCode.DIMENSION + 2 * BCode.MARGIN) * maxModuleSize);
+		List<TileTask> tiles = new ArrayList<TileTask>();
+		for (int y = 0; y < height; y += tileSize) for (int x = 0; x < width; x += tileSize) tiles.add(new TileTask(luminances, width, height, x, y, overlap, thresholdCount));
+		
+		// detect bCodes in each tile
+		List<List<List<BCode>>> tileDetections = new ArrayList<List<List<BCode>>>();
+		if ((thresholdPool == null) || (thresholdPool.getParallelism() == 1)) for (TileTask tile : tiles) tileDetections.add(tile.invoke());
+		else 
+		{
+			for (TileTask tile : tiles) thresholdPool.execute(tile);
+			for (TileTask tile : tiles) tileDetections.add(tile.join());
+		}
+		
+		// merge the detections of all tiles threshold by threshold
+		List<List<BCode>> detections = new ArrayList<List<BCode>>(Collections.nCopies(thresholdCount, (List<BCode>) null));
+		for (int i = 0; i < thresholdCount; i++)
+		{
+			for (List<List<BCode>> tile : tileDetections)
+			{
+				if (tile.get(i) == null) continue;
+				if (detections.get(i) == null) detections.set(i, new LinkedList<BCode>());
+				detections.get(i).addAll(tile.get(i));
+			}
+		}
+		return detections;
+
+	}
+	
+	private List<List<BCode>> readTile(byte[] luminances, int width, int height, int coreX, int coreY, int overlap, int thresholdCount)
+	{
+		
+		// detect bCodes in tile and its overlap with neighboring tiles 
+		int left = Math.max(0, coreX - overlap);
+		int top = Math.max(0, coreY - overlap);
+		int right = Math.min(width, coreX + tileSize + overlap);
+		int bottom = Math.min(height, coreY + tileSize + overlap);
+		List<List<BCode>> detections = read(crop(luminances, width, left, top, right, bottom), thresholdCount, null);
+		
+		// keep only bCodes centered in the tile itself, so that bCodes in the
+		// overlap are not counted twice, and move them to image coordinates
+		for (List<BCode> beeIDs : detections)
+		{
+			if (beeIDs == null) continue;
+			Iterator<BCode> iterator = beeIDs.iterator();
+			while (iterator.hasNext())
+			{
+				BCode beeID = iterator.next();
+				float x = beeID.center.getX() + left;
+				float y = beeID.center.getY() + top;
+				if ((x < coreX) || (x >= coreX + tileSize) || (y < coreY) || (y >= coreY + tileSize)) iterator.remove();
+			}
+		}
+		translate(detections, left, top);
+		return detections;
+		
 	}
 	
-	public static List<MetaCode> read(String filename) throws IOException, NotFoundException
+	private static int[] createIndices(int thresholdCount, int stepFactor)
+	{
+		int[] indices = new int[(thresholdCount + stepFactor - 1) / stepFactor];
+		for (int i = 0; i < indices.length; i++) indices[i] = i * stepFactor;
+		return indices;
+	}
+	
+	private void sweep(SortedPixels pixels, int[] indices, List<List<BCode>> detections, ForkJoinPool pool)
+	{
+		if ((pool == null) || (pool.getParallelism() == 1)) detect(pixels, indices, 0, indices.length, detections);
+		else 
+		{
+			int chunkSize = Math.max(1, (indices.length + pool.getParallelism() - 1) / pool.getParallelism());
+			pool.invoke(new ThresholdRangeTask(pixels, indices, 0, indices.length, chunkSize, detections));
+		}
+	}
+	
+	private void sweepAdaptively(SortedPixels pixels, int thresholdCount, List<List<BCode>> detections, ForkJoinPool pool)
+	{
+		
+		// visit every coarseStepFactor-th threshold; without a pool, coarse 
+		// thresholds are visited in the loop below, so that one binarizer 
+		// moves through the thresholds only once
+		int[] coarseIndices = createIndices(thresholdCount, coarseStepFactor);
+		if ((pool != null) && (pool.getParallelism() > 1)) sweep(pixels, coarseIndices, detections, pool);
+		
+		// refine on both sides of each coarse threshold that yielded a new
+		// bCode ID; the binarizer can move in both directions, so each side is 
+		// visited outward from the coarse threshold. once IDs were found, the
+		// sweep stops after refinementPatience coarse thresholds in a row 
+		// without a new ID. coarse thresholds after that were only visited 
+		// by the pool and are dropped, so that the result does not depend on 
+		// whether a pool is used.
+		Binarizer binarizer = new Binarizer(pixels);
+		HashSet<Integer> ids = new HashSet<Integer>();
+		int idleCount = 0;
+		for (int i = 0; i < coarseIndices.length; i++)
+		{
+			int index = coarseIndices[i];
+			if (detections.get(index) == null)
+			{
+				binarizer.binarize(maxBlackThreshold - index * thresholdStepSize);
+				detections.set(index, detector.detect(binarizer.getMatrix(), binarizer.getIndex()));
+			}
+			if (addIDs(detections.get(index), ids))
+			{
+				idleCount = 0;
+				refine(binarizer, index, -1, thresholdCount, detections, ids);
+				refine(binarizer, index, 1, thresholdCount, detections, ids);
+			}
+			else if ((!ids.isEmpty()) && (++idleCount == refinementPatience)) 
+			{
+				for (int j = i + 1; j < coarseIndices.length; j++) detections.set(coarseIndices[j], null);
+				break;
+			}
+		}
+		
+	}
+	
+	// visits the thresholds next to the given coarse threshold in the given
+	// direction until refinementPatience thresholds in a row add no new ID, 
+	// the neighboring coarse threshold is reached, or a threshold was already
+	// visited from the other side
+	private void refine(Binarizer binarizer, int coarseIndex, int direction, int thresholdCount, List<List<BCode>> detections, HashSet<Integer> ids)
+	{
+		int idleCount = 0;
+		for (int i = coarseIndex + direction; (i >= 0) && (i < thresholdCount) && (i % coarseStepFactor != 0) && (idleCount < refinementPatience); i += direction)
+		{
+			if (detections.get(i) != null) break;
+			binarizer.binarize(maxBlackThreshold - i * thresholdStepSize);
+			detections.set(i, detector.detect(binarizer.getMatrix(), binarizer.getIndex()));
+			if (addIDs(detections.get(i), ids)) idleCount = 0;
+			else idleCount++;
+		}
+	}
+	
+	// adds the IDs of all decoded bCodes to the given set and returns 
+	// whether any of them were not in the set before
+	private static boolean addIDs(List<BCode> beeIDs, HashSet<Integer> ids)
+	{
+		boolean added = false;
+		for (BCode beeID : beeIDs) if ((beeID.hasGoodTemplate) && (beeID.isDecoded) && (ids.add(beeID.data))) added = true;
+		return added;
+	}
+	
+	// detects bCodes at the thresholds with the given indices, going from the 
+	// highest to the lowest threshold
+	private void detect(SortedPixels pixels, int[] indices, int from, int to, List<List<BCode>> detections)
+	{
+		Binarizer binarizer = new Binarizer(pixels);
+		for (int i = from; i < to; i++)
+		{
+			binarizer.binarize(maxBlackThreshold - indices[i] * thresholdStepSize);
+			detections.set(indices[i], detector.detect(binarizer.getMatrix(), binarizer.getIndex()));
+		}
+	}
+	
+	public List<MetaCode> read(String filename) throws IOException, NotFoundException
 	{
 		BufferedImage image = ImageIO.read(new File(filename));
 		if (image == null) 
@@ -76,4 +379,85 @@ public final class Reader
         return read(image);
 	}
 	
+	// each task binarizes its own copy of the image and stores its detections
+	// at the indices of its thresholds, so that consolidation gives the same
+	// result as a sequential sweep
+	private final class ThresholdRangeTask extends RecursiveAction
+	{
+		
+		private static final long serialVersionUID = 1L;
+
+		private final SortedPixels pixels;
+		
+		private final int[] indices;
+		
+		private final int from;
+		
+		private final int to;
+		
+		private final int chunkSize;
+		
+		private final List<List<BCode>> detections;
+
+		public ThresholdRangeTask(SortedPixels pixels, int[] indices, int from, int to, int chunkSize, List<List<BCode>> detections)
+		{
+			this.pixels = pixels;
+			this.indices = indices;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+			this.detections = detections;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= chunkSize) detect(pixels, indices, from, to, detections);
+			else
+			{
+				int middle = from + (to - from + 1) / 2;
+				invokeAll(new ThresholdRangeTask(pixels, indices, from, middle, chunkSize, detections), new ThresholdRangeTask(pixels, indices, middle, to, chunkSize, detections));
+			}
+		}
+		
+	}
+	
+	private final class TileTask extends RecursiveTask<List<List<BCode>>>
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] luminances;
+		
+		private final int width;
+		
+		private final int height;
+		
+		private final int coreX;
+		
+		private final int coreY;
+		
+		private final int overlap;
+		
+		private final int thresholdCount;
+		
+		public TileTask(byte[] luminances, int width, int height, int coreX, int coreY, int overlap, int thresholdCount)
+		{
+			this.luminances = luminances;
+			this.width = width;
+			this.height = height;
+			this.coreX = coreX;
+			this.coreY = coreY;
+			this.overlap = overlap;
+			this.thresholdCount = thresholdCount;
+		}
+
+		@Override
+		protected List<List<BCode>> compute()
+		{
+			return readTile(luminances, width, height, coreX, coreY, overlap, thresholdCount);
+		}
+		
+	}
+	
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.tracking.bcode;
+
+import com.google.zxing.common.BitMatrix;
+
+// Measures runs of equal pixels in BitMatrix rows 32 pixels at a time by
+// looking for the next set bit in the (inverted) words of the matrix.
+// Black pixels are set bits.
+public final class RowScanner
+{
+
+	private RowScanner()
+	{
+	}
+
+	// returns the first x in [from, to) whose pixel in row y has the given
+	// color, or to if there is none
+	public static int findNext(BitMatrix image, int y, int from, int to, boolean black)
+	{
+		int offset = y * image.rowSize;
+		int x = from;
+		while (x < to)
+		{
+			int word = image.bits[offset + (x >> 5)];
+			if (!black) word = ~word;
+			word &= -1 << (x & 0x1f);
+			if (word != 0) return Math.min((x & ~0x1f) + Integer.numberOfTrailingZeros(word), to);
+			x = (x & ~0x1f) + 32;
+		}
+		return to;
+	}
+
+	// returns the last x in [to, from] whose pixel in row y has the given
+	// color, or to - 1 if there is none
+	public static int findPrevious(BitMatrix image, int y, int from, int to, boolean black)
+	{
+		int offset = y * image.rowSize;
+		int x = from;
+		while (x >= to)
+		{
+			int word = image.bits[offset + (x >> 5)];
+			if (!black) word = ~word;
+			word &= -1 >>> (31 - (x & 0x1f));
+			if (word != 0) return Math.max((x & ~0x1f) + 31 - Integer.numberOfLeadingZeros(word), to - 1);
+			x = (x & ~0x1f) - 1;
+		}
+		return to - 1;
+	}
+
+	// returns the number of pixels of the given color in row y that start at
+	// x and extend to the right, but not beyond to - 1
+	public static int getRunLengthRight(BitMatrix image, int y, int x, int to, boolean black)
+	{
+		return findNext(image, y, x, to, !black) - x;
+	}
+
+	// returns the number of pixels of the given color in row y that start at
+	// x and extend to the left, but not beyond 0
+	public static int getRunLengthLeft(BitMatrix image, int y, int x, boolean black)
+	{
+		return x - findPrevious(image, y, x, 0, !black);
+	}
+
+}
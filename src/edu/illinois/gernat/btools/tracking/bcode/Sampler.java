@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ *
+ * Copyright 2007 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.illinois.gernat.btools.tracking.bcode;
+
+import com.google.zxing.common.BitMatrix;
+
+// Re-implementation of com.google.zxing.common.DefaultGridSampler and
+// com.google.zxing.common.PerspectiveTransform
+//
+// Major changes:
+// - samples into a matrix and point buffer that are reused for every bCode
+// - keeps the transform coefficients in arrays instead of creating a
+//   PerspectiveTransform per bCode
+// - precomputes the transform from the template corners to the unit square,
+//   which is the same for every bCode
+// - returns null instead of throwing a NotFoundException
+//
+// The arithmetic is the same as in ZXing, so sampled grids are identical.
+public final class Sampler
+{
+
+	// transform coefficients are stored in this order
+	private static final int A11 = 0;
+
+	private static final int A12 = 1;
+
+	private static final int A13 = 2;
+
+	private static final int A21 = 3;
+
+	private static final int A22 = 4;
+
+	private static final int A23 = 5;
+
+	private static final int A31 = 6;
+
+	private static final int A32 = 7;
+
+	private static final int A33 = 8;
+
+	// results of checking a point
+	private static final int INSIDE = 0;
+
+	private static final int NUDGED = 1;
+
+	private static final int OUTSIDE = 2;
+
+	private static final float[] TEMPLATE_TO_SQUARE = createTemplateToSquare();
+
+	private final BitMatrix bits;
+
+	private final float[] points;
+
+	private final float[] squareToImage;
+
+	private final float[] transform;
+
+	public Sampler()
+	{
+		bits = new BitMatrix(BitGrid.SIZE);
+		points = new float[2 * BitGrid.SIZE];
+		squareToImage = new float[9];
+		transform = new float[9];
+	}
+
+	// samples the bCode whose patterns are at the given image positions; the
+	// returned matrix is overwritten by the next call. returns null if the
+	// bCode extends beyond the image.
+	public BitMatrix sample(BitMatrix image, float tlX, float tlY, float trX, float trY, float brX, float brY, float blX, float blY)
+	{
+		squareToQuadrilateral(tlX, tlY, trX, trY, brX, brY, blX, blY, squareToImage);
+		multiply(squareToImage, TEMPLATE_TO_SQUARE, transform);
+		bits.clear();
+		int max = points.length;
+		for (int y = 0; y < BitGrid.SIZE; y++)
+		{
+			float iValue = (float) y + 0.5f;
+			for (int x = 0; x < max; x += 2)
+			{
+				points[x] = (float) (x >> 1) + 0.5f;
+				points[x + 1] = iValue;
+			}
+			transformPoints(points);
+			if (!checkAndNudgePoints(image, points)) return null;
+			try
+			{
+				for (int x = 0; x < max; x += 2) if (image.get((int) points[x], (int) points[x + 1])) bits.set(x >> 1, y);
+			}
+			catch (ArrayIndexOutOfBoundsException e)
+			{
+				return null;
+			}
+		}
+		return bits;
+	}
+
+	private void transformPoints(float[] points)
+	{
+		float a11 = transform[A11];
+		float a12 = transform[A12];
+		float a13 = transform[A13];
+		float a21 = transform[A21];
+		float a22 = transform[A22];
+		float a23 = transform[A23];
+		float a31 = transform[A31];
+		float a32 = transform[A32];
+		float a33 = transform[A33];
+		for (int i = 0; i < points.length; i += 2)
+		{
+			float x = points[i];
+			float y = points[i + 1];
+			float denominator = a13 * x + a23 * y + a33;
+			points[i] = (a11 * x + a21 * y + a31) / denominator;
+			points[i + 1] = (a12 * x + a22 * y + a32) / denominator;
+		}
+	}
+
+	// moves points that are at most one pixel outside the image onto the
+	// image border; like in ZXing, only points at the ends of the row are 
+	// checked. returns false if a checked point is further outside.
+	private static boolean checkAndNudgePoints(BitMatrix image, float[] points)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int result = NUDGED;
+		for (int offset = 0; offset < points.length && result == NUDGED; offset += 2) result = checkAndNudgePoint(points, offset, width, height);
+		if (result == OUTSIDE) return false;
+		result = NUDGED;
+		for (int offset = points.length - 2; offset >= 0 && result == NUDGED; offset -= 2) result = checkAndNudgePoint(points, offset, width, height);
+		return result != OUTSIDE;
+	}
+
+	private static int checkAndNudgePoint(float[] points, int offset, int width, int height)
+	{
+		int x = (int) points[offset];
+		int y = (int) points[offset + 1];
+		if (x < -1 || x > width || y < -1 || y > height) return OUTSIDE;
+		int result = INSIDE;
+		if (x == -1)
+		{
+			points[offset] = 0.0f;
+			result = NUDGED;
+		}
+		else if (x == width)
+		{
+			points[offset] = width - 1;
+			result = NUDGED;
+		}
+		if (y == -1)
+		{
+			points[offset + 1] = 0.0f;
+			result = NUDGED;
+		}
+		else if (y == height)
+		{
+			points[offset + 1] = height - 1;
+			result = NUDGED;
+		}
+		return result;
+	}
+
+	private static void squareToQuadrilateral(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3, float[] transform)
+	{
+		float dy2 = y3 - y2;
+		float dy3 = y0 - y1 + y2 - y3;
+		if (dy2 == 0.0f && dy3 == 0.0f)
+		{
+			set(transform, x1 - x0, x2 - x1, x0, y1 - y0, y2 - y1, y0, 0.0f, 0.0f, 1.0f);
+			return;
+		}
+		float dx1 = x1 - x2;
+		float dx2 = x3 - x2;
+		float dx3 = x0 - x1 + x2 - x3;
+		float dy1 = y1 - y2;
+		float denominator = dx1 * dy2 - dx2 * dy1;
+		float a13 = (dx3 * dy2 - dx2 * dy3) / denominator;
+		float a23 = (dx1 * dy3 - dx3 * dy1) / denominator;
+		set(transform, x1 - x0 + a13 * x1, x3 - x0 + a23 * x3, x0, y1 - y0 + a13 * y1, y3 - y0 + a23 * y3, y0, a13, a23, 1.0f);
+	}
+
+	private static float[] createTemplateToSquare()
+	{
+		float[] t = new float[9];
+		squareToQuadrilateral(BCode.TL_POSITION.x, BCode.TL_POSITION.y, BCode.TR_POSITION.x, BCode.TR_POSITION.y, BCode.BR_POSITION.x, BCode.BR_POSITION.y, BCode.BL_POSITION.x, BCode.BL_POSITION.y, t);
+
+		// build adjoint
+		float[] adjoint = new float[9];
+		set(adjoint,
+				t[A22] * t[A33] - t[A23] * t[A32],
+				t[A23] * t[A31] - t[A21] * t[A33],
+				t[A21] * t[A32] - t[A22] * t[A31],
+				t[A13] * t[A32] - t[A12] * t[A33],
+				t[A11] * t[A33] - t[A13] * t[A31],
+				t[A12] * t[A31] - t[A11] * t[A32],
+				t[A12] * t[A23] - t[A13] * t[A22],
+				t[A13] * t[A21] - t[A11] * t[A23],
+				t[A11] * t[A22] - t[A12] * t[A21]);
+		return adjoint;
+	}
+
+	// computes a * b, i.e., the transform that applies b and then a
+	private static void multiply(float[] a, float[] b, float[] result)
+	{
+		set(result,
+				a[A11] * b[A11] + a[A21] * b[A12] + a[A31] * b[A13],
+				a[A11] * b[A21] + a[A21] * b[A22] + a[A31] * b[A23],
+				a[A11] * b[A31] + a[A21] * b[A32] + a[A31] * b[A33],
+				a[A12] * b[A11] + a[A22] * b[A12] + a[A32] * b[A13],
+				a[A12] * b[A21] + a[A22] * b[A22] + a[A32] * b[A23],
+				a[A12] * b[A31] + a[A22] * b[A32] + a[A32] * b[A33],
+				a[A13] * b[A11] + a[A23] * b[A12] + a[A33] * b[A13],
+				a[A13] * b[A21] + a[A23] * b[A22] + a[A33] * b[A23],
+				a[A13] * b[A31] + a[A23] * b[A32] + a[A33] * b[A33]);
+	}
+
+	// sets coefficients in the argument order of ZXing's PerspectiveTransform
+	// constructor
+	private static void set(float[] transform, float a11, float a21, float a31, float a12, float a22, float a32, float a13, float a23, float a33)
+	{
+		transform[A11] = a11;
+		transform[A12] = a12;
+		transform[A13] = a13;
+		transform[A21] = a21;
+		transform[A22] = a22;
+		transform[A23] = a23;
+		transform[A31] = a31;
+		transform[A32] = a32;
+		transform[A33] = a33;
+	}
+
+}
@@ -56,32 +56,48 @@ import com.google.zxing.common.BitMatrix;
 public final class SmallSquareFinder 
 {
 
-	private final BitMatrix image;
+	private BitMatrix image;
 
 	private final ArrayList<SmallSquare> possibleCenters;
 	
-	private final int startX;
+	private int startX;
 	
-	private final int startY;
+	private int startY;
 	
-	private final int width;
+	private int width;
 	
-	private final int height;
+	private int height;
 	
-	private final float moduleSize;
+	private float moduleSize;
+	
+	private final int[] stateCount;
 	
 	private final int[] crossCheckStateCount;
 
+	public SmallSquareFinder() 
+	{
+		this.possibleCenters = new ArrayList<>();
+		this.stateCount = new int[3];
+		this.crossCheckStateCount = new int[3];
+	}
+
 	public SmallSquareFinder(BitMatrix image, int startX, int startY, int width, int height, float moduleSize) 
+	{
+		this();
+		reset(image, startX, startY, width, height, moduleSize);
+	}
+
+	// prepares this finder for another search region, so that it can be 
+	// reused without allocating new buffers
+	public void reset(BitMatrix image, int startX, int startY, int width, int height, float moduleSize) 
 	{
 		this.image = image;
-		this.possibleCenters = new ArrayList<>();
 		this.startX = startX;
 		this.startY = startY;
 		this.width = width;
 		this.height = height;
 		this.moduleSize = moduleSize;
-		this.crossCheckStateCount = new int[3];
+		possibleCenters.clear();
 	}
 
 	public void find() 
@@ -90,7 +106,7 @@ public final class SmallSquareFinder
 		int height = this.height;
 		int maxJ = startX + width;
 		int middleI = startY + (height >> 1);
-		int[] stateCount = new int[3];
+		int[] stateCount = this.stateCount;
 		for (int iGen = 0; iGen < height; iGen++) 
 		{
 
@@ -98,33 +114,31 @@ public final class SmallSquareFinder
 			stateCount[0] = 0;
 			stateCount[1] = 0;
 			stateCount[2] = 0;
-			int j = startX;
-			while (j < maxJ && image.get(j, i)) j++;
+			int j = RowScanner.findNext(image, i, startX, maxJ, false);
 			int currentState = 0;
 			while (j < maxJ) 
 			{
-				if (!image.get(j, i)) 
-				{
-					if (currentState == 1) stateCount[currentState]++;
-					else 
-					{
-						if (currentState == 2) 
-						{ 
-							if (foundPatternCross(stateCount)) handlePossibleCenter(stateCount, i, j);
-							stateCount[0] = stateCount[2];
-							stateCount[1] = 1;
-							stateCount[2] = 0;
-							currentState = 1;
-						} 
-						else stateCount[++currentState]++;
-					}
-				} 
-				else 
+
+				// a white run ends a black-white-black candidate
+				int end = RowScanner.findNext(image, i, j, maxJ, true);
+				if (currentState == 2) 
 				{ 
-					if (currentState == 1) currentState++;
-					stateCount[currentState]++;
-				}
-				j++;
+					if (foundPatternCross(stateCount)) handlePossibleCenter(stateCount, i, j);
+					stateCount[0] = stateCount[2];
+					stateCount[1] = 0;
+					stateCount[2] = 0;
+				} 
+				currentState = 1;
+				stateCount[1] += end - j;
+				j = end;
+				if (j == maxJ) break;
+
+				// a black run completes the next candidate
+				end = RowScanner.findNext(image, i, j, maxJ, false);
+				currentState = 2;
+				stateCount[2] += end - j;
+				j = end;
+
 			}
 			if (foundPatternCross(stateCount)) handlePossibleCenter(stateCount, i, maxJ);
 
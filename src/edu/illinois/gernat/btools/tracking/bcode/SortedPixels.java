@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.tracking.bcode;
+
+import com.google.zxing.LuminanceSource;
+
+// Pixel offsets of an image sorted by intensity and, within an intensity,
+// by offset. Instances are immutable, so all binarizers of an image can
+// share one.
+public final class SortedPixels
+{
+
+	public static final int INTENSITY_COUNT = 256;
+
+	private final int width;
+
+	private final int height;
+
+	private final int[] offsets;
+
+	private final int[] intensityStarts; // start of each intensity in offsets
+
+	public SortedPixels(LuminanceSource source)
+	{
+		byte[] luminances = source.getMatrix();
+		width = source.getWidth();
+		height = source.getHeight();
+		intensityStarts = new int[INTENSITY_COUNT + 1];
+		for (int i = 0; i < width * height; i++) intensityStarts[(luminances[i] & 0xff) + 1]++;
+		for (int i = 0; i < INTENSITY_COUNT; i++) intensityStarts[i + 1] += intensityStarts[i];
+		int[] next = new int[INTENSITY_COUNT];
+		System.arraycopy(intensityStarts, 0, next, 0, INTENSITY_COUNT);
+		offsets = new int[width * height];
+		for (int i = 0; i < width * height; i++) offsets[next[luminances[i] & 0xff]++] = i;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	// returns the index of the first pixel with the given intensity, which
+	// may be INTENSITY_COUNT to get the number of pixels
+	public int getIntensityStart(int intensity)
+	{
+		return intensityStarts[intensity];
+	}
+
+	public int getOffset(int index)
+	{
+		return offsets[index];
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2026 University of Illinois Board of Trustees.
+ *
+ * This file is part of bTools.
+ *
+ * bTools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * bTools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with bTools. If not, see http://www.gnu.org/licenses/.
+ */
+
+package edu.illinois.gernat.btools.tracking.bcode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.google.zxing.LuminanceSource;
+
+// Detects bCodes in consecutive video frames. Every fullSweepInterval-th
+// frame is searched completely. In the frames in between, each bCode ID
+// that was decoded in the previous frame is only searched for in a small
+// window around its predicted position, so IDs that appear between two full
+// sweeps are only found by the next full sweep.
+public class Tracker
+{
+
+	public static final float DEFAULT_SEARCH_RADIUS = 4;
+
+	private final Reader reader;
+
+	private final int fullSweepInterval;
+
+	private final float searchRadius; // in modules, beyond the bCode itself
+
+	private LinkedHashMap<Integer, Track> tracks;
+
+	private int frameNumber;
+
+	public Tracker(Reader reader, int fullSweepInterval)
+	{
+		this(reader, fullSweepInterval, DEFAULT_SEARCH_RADIUS);
+	}
+
+	public Tracker(Reader reader, int fullSweepInterval, float searchRadius)
+	{
+		if (fullSweepInterval < 1) throw new IllegalArgumentException();
+		if (searchRadius < 0) throw new IllegalArgumentException();
+		this.reader = reader;
+		this.fullSweepInterval = fullSweepInterval;
+		this.searchRadius = searchRadius;
+		tracks = new LinkedHashMap<Integer, Track>();
+		frameNumber = 0;
+	}
+
+	public List<MetaCode> read(LuminanceSource source)
+	{
+
+		// search the whole frame if it is time for a full sweep
+		List<MetaCode> metaIDs;
+		if (frameNumber % fullSweepInterval == 0) metaIDs = reader.read(source);
+
+		// otherwise, search around the predicted position of each tracked ID
+		else
+		{
+			metaIDs = new ArrayList<MetaCode>();
+			byte[] luminances = source.getMatrix();
+			for (Track track : tracks.values())
+			{
+
+				// predict position from the last two positions
+				float x = track.x + track.dx;
+				float y = track.y + track.dy;
+
+				// find ID in search window; keep the detection closest to the
+				// predicted position
+				int radius = (int) Math.ceil((BCode.DISTANCE_CENTER_CORNER + searchRadius) * track.moduleSize);
+				MetaCode closest = null;
+				float closestDistance = Float.MAX_VALUE;
+				for (MetaCode metaID : reader.read(luminances, source.getWidth(), source.getHeight(), (int) x - radius, (int) y - radius, (int) x + radius + 1, (int) y + radius + 1))
+				{
+					if ((!metaID.isDecoded) || (metaID.data != track.id)) continue;
+					float distance = (metaID.center.x - x) * (metaID.center.x - x) + (metaID.center.y - y) * (metaID.center.y - y);
+					if (distance >= closestDistance) continue;
+					closest = metaID;
+					closestDistance = distance;
+				}
+				if (closest != null) metaIDs.add(closest);
+
+			}
+		}
+
+		// update tracks; an ID that was not found ends its track
+		LinkedHashMap<Integer, Track> newTracks = new LinkedHashMap<Integer, Track>();
+		for (MetaCode metaID : metaIDs)
+		{
+			if ((!metaID.isDecoded) || (newTracks.containsKey(metaID.data))) continue;
+			Track track = new Track(metaID, tracks.get(metaID.data));
+			newTracks.put(metaID.data, track);
+		}
+		tracks = newTracks;
+		frameNumber++;
+
+		// done
+		return metaIDs;
+
+	}
+
+	private static final class Track
+	{
+
+		private final int id;
+
+		private final float x;
+
+		private final float y;
+
+		private final float dx;
+
+		private final float dy;
+
+		private final float moduleSize;
+
+		public Track(MetaCode metaID, Track previous)
+		{
+			id = metaID.data;
+			x = metaID.center.x;
+			y = metaID.center.y;
+			dx = previous == null ? 0 : x - previous.x;
+			dy = previous == null ? 0 : y - previous.y;
+			moduleSize = metaID.moduleSize;
+		}
+
+	}
+
+}